@@ -0,0 +1,64 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen;
+
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cube primer that remembers whether water or lava has ever been written to it. Structure generators use it to skip
+ * scanning for liquids in cubes that can't contain any, which is most of them.
+ * <p>
+ * The flags are never cleared, so overwriting a liquid doesn't make the primer forget about it.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class LiquidTrackingCubePrimer extends CubePrimer {
+
+    private boolean mayContainWater;
+    private boolean mayContainLava;
+
+    @Override public void setBlockState(int x, int y, int z, IBlockState state) {
+        Block block = state.getBlock();
+        if (block == Blocks.WATER || block == Blocks.FLOWING_WATER) {
+            mayContainWater = true;
+        } else if (block == Blocks.LAVA || block == Blocks.FLOWING_LAVA) {
+            mayContainLava = true;
+        }
+        super.setBlockState(x, y, z, state);
+    }
+
+    public boolean mayContainWater() {
+        return mayContainWater;
+    }
+
+    public boolean mayContainLava() {
+        return mayContainLava;
+    }
+}
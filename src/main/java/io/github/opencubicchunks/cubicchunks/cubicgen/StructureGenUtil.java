@@ -27,7 +27,9 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 import java.util.function.Predicate;
@@ -41,12 +43,19 @@ public class StructureGenUtil {
     public static boolean scanWallsForBlock(CubePrimer cube,
             StructureBoundingBox boundingBox,
             Predicate<IBlockState> predicate) {
-        int minX = boundingBox.minX;
-        int minY = boundingBox.minY;
-        int minZ = boundingBox.minZ;
-        int maxX = boundingBox.maxX;
-        int maxY = boundingBox.maxY;
-        int maxZ = boundingBox.maxZ;
+        return scanWallsForBlock(cube,
+                boundingBox.minX, boundingBox.minY, boundingBox.minZ,
+                boundingBox.maxX, boundingBox.maxY, boundingBox.maxZ,
+                predicate);
+    }
+
+    /**
+     * Same as {@link #scanWallsForBlock(CubePrimer, StructureBoundingBox, Predicate)}, but takes the box as min (inclusive)
+     * and max (exclusive) local coordinates so that callers don't need to allocate a bounding box.
+     */
+    public static boolean scanWallsForBlock(CubePrimer cube,
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            Predicate<IBlockState> predicate) {
         // xy planes
         for (int x = minX; x < maxX; ++x) {
             for (int y = minY; y < maxY; ++y) {
@@ -80,6 +89,66 @@ public class StructureGenUtil {
         return false;
     }
 
+    /**
+     * Checks if there is any water on the walls of the given box, min coordinates are inclusive, max are exclusive.
+     * Answers immediately for {@link LiquidTrackingCubePrimer} without any water.
+     */
+    public static boolean scanWallsForWater(CubePrimer cube, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (cube instanceof LiquidTrackingCubePrimer && !((LiquidTrackingCubePrimer) cube).mayContainWater()) {
+            return false;
+        }
+        return scanWallsForBlocks(cube, minX, minY, minZ, maxX, maxY, maxZ, Blocks.WATER, Blocks.FLOWING_WATER);
+    }
+
+    /**
+     * Checks if there is any lava on the walls of the given box, min coordinates are inclusive, max are exclusive.
+     * Answers immediately for {@link LiquidTrackingCubePrimer} without any lava.
+     */
+    public static boolean scanWallsForLava(CubePrimer cube, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (cube instanceof LiquidTrackingCubePrimer && !((LiquidTrackingCubePrimer) cube).mayContainLava()) {
+            return false;
+        }
+        return scanWallsForBlocks(cube, minX, minY, minZ, maxX, maxY, maxZ, Blocks.LAVA, Blocks.FLOWING_LAVA);
+    }
+
+    // same as scanWallsForBlock, with direct block comparisons instead of a predicate
+    private static boolean scanWallsForBlocks(CubePrimer cube,
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            Block block1, Block block2) {
+        Block block;
+        // xy planes
+        for (int x = minX; x < maxX; ++x) {
+            for (int y = minY; y < maxY; ++y) {
+                if ((block = cube.getBlockState(x, y, minZ).getBlock()) == block1 || block == block2 ||
+                        (block = cube.getBlockState(x, y, maxZ - 1).getBlock()) == block1 || block == block2) {
+                    return true;
+                }
+            }
+        }
+
+        // xz planes
+        for (int x = minX; x < maxX; ++x) {
+            for (int z = minZ; z < maxZ; ++z) {
+                if ((block = cube.getBlockState(x, minY, z).getBlock()) == block1 || block == block2 ||
+                        (block = cube.getBlockState(x, maxY - 1, z).getBlock()) == block1 || block == block2) {
+                    return true;
+                }
+            }
+        }
+
+        // yz planes
+        for (int y = minY; y < maxY; ++y) {
+            for (int z = minZ; z < maxZ; ++z) {
+                if ((block = cube.getBlockState(minX, y, z).getBlock()) == block1 || block == block2 ||
+                        (block = cube.getBlockState(maxX - 1, y, z).getBlock()) == block1 || block == block2) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     //Note: it can return negative value. it's not a real distance
     public static double normalizedDistance(int cubeOriginCoord, int localCoord, double structureCoord, double scale) {
         return (Coords.localToBlock(cubeOriginCoord, localCoord) + 0.5D - structureCoord) / scale;
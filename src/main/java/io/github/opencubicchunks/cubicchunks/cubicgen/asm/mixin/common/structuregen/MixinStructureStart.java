@@ -23,6 +23,7 @@
  */
 package io.github.opencubicchunks.cubicchunks.cubicgen.asm.mixin.common.structuregen;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
 
 import com.google.common.base.Preconditions;
@@ -44,6 +45,7 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import org.spongepowered.asm.mixin.injection.callback.LocalCapture;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
 
@@ -68,6 +70,9 @@ public abstract class MixinStructureStart implements ICubicStructureStart {
     private int minDepth;
     private int randY;
 
+    // cubes this structure was already generated in, indexed within the range of cubes its bounding box intersects
+    @Nullable private BitSet processedCubes;
+
     @Override public int getChunkPosY() {
         return this.cubeY;
     }
@@ -95,12 +100,54 @@ public abstract class MixinStructureStart implements ICubicStructureStart {
         tag.setInteger("ChunkY", this.cubeY);
     }
 
+    @Inject(method = "writeStructureComponentsToNBT", at = @At("RETURN"))
+    private void writeProcessedCubesToNbt(int chunkX, int chunkZ, CallbackInfoReturnable<NBTTagCompound> cir) {
+        if (this.processedCubes != null && !this.processedCubes.isEmpty()) {
+            cir.getReturnValue().setByteArray("ProcessedCubes", this.processedCubes.toByteArray());
+        }
+    }
+
     @Inject(method = "readStructureComponentsFromNBT", at = @At("HEAD"))
     private void readYFromNBT(World world, NBTTagCompound tag, CallbackInfo cbi) {
         if (tag.hasKey("ChunkY")) {
             this.isCubic = true;
             this.cubeY = tag.getInteger("ChunkY");
         }
+        if (tag.hasKey("ProcessedCubes")) {
+            this.processedCubes = BitSet.valueOf(tag.getByteArray("ProcessedCubes"));
+        }
+    }
+
+    @Override public boolean isValidForPostProcess(CubePos pos) {
+        int index = processedCubeIndex(pos);
+        return index < 0 || this.processedCubes == null || !this.processedCubes.get(index);
+    }
+
+    @Override public void notifyPostProcessAt(CubePos pos) {
+        int index = processedCubeIndex(pos);
+        if (index < 0) {
+            return;
+        }
+        if (this.processedCubes == null) {
+            this.processedCubes = new BitSet();
+        }
+        this.processedCubes.set(index);
+    }
+
+    /**
+     * Returns the index of the given cube among the cubes that can be populated with this structure, or -1 if it's
+     * outside of the bounding box. Population of a cube covers blocks offset by half a cube in each direction.
+     */
+    private int processedCubeIndex(CubePos pos) {
+        int offset = ICube.SIZE / 2;
+        int minX = blockToCube(this.boundingBox.minX - offset), maxX = blockToCube(this.boundingBox.maxX - offset);
+        int minY = blockToCube(this.boundingBox.minY - offset), maxY = blockToCube(this.boundingBox.maxY - offset);
+        int minZ = blockToCube(this.boundingBox.minZ - offset), maxZ = blockToCube(this.boundingBox.maxZ - offset);
+        if (pos.getX() < minX || pos.getX() > maxX || pos.getY() < minY || pos.getY() > maxY || pos.getZ() < minZ || pos.getZ() > maxZ) {
+            return -1;
+        }
+        int sizeY = maxY - minY + 1, sizeZ = maxZ - minZ + 1;
+        return ((pos.getX() - minX) * sizeY + (pos.getY() - minY)) * sizeZ + (pos.getZ() - minZ);
     }
 
     @Inject(method = "markAvailableHeight", at = @At("HEAD"), cancellable = true)
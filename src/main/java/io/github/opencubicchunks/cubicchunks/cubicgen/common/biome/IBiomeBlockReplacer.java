@@ -35,6 +35,21 @@ public interface IBiomeBlockReplacer {
     default void onBlockColumnStart() {
         // method needed by mesa because of a nasty hack in vanilla
     }
+
+    /**
+     * Called before replacing blocks of a block column, with the context that will be passed to
+     * {@link #getReplacedBlock(IBlockState, int, int, int, double, double, double, double, ColumnContext)} for all
+     * blocks of that column. Replacers can store values that depend only on X and Z coordinates in the context, so
+     * that they are computed once per column instead of once per block.
+     *
+     * @param x the block X coordinate
+     * @param z the block Z coordinate
+     * @param context the context of the column, may contain values from a previous column
+     */
+    default void onColumnStart(int x, int z, ColumnContext context) {
+        onBlockColumnStart();
+    }
+
     /**
      * Replaces the given block with another block based on given location, density gradient and density value. Biome
      * block replacers can be chained (output if one replacer used as input to another replacer)
@@ -54,4 +69,15 @@ public interface IBiomeBlockReplacer {
      * @param density the density value
      */
     IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density);
+
+    /**
+     * Same as {@link #getReplacedBlock(IBlockState, int, int, int, double, double, double, double)}, for a block of a
+     * column started with {@link #onColumnStart(int, int, ColumnContext)}.
+     *
+     * @param context the context given to {@link #onColumnStart(int, int, ColumnContext)} for this column
+     */
+    default IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density,
+            ColumnContext context) {
+        return getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density);
+    }
 }
@@ -40,6 +40,7 @@ import net.minecraft.world.biome.Biome;
 
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -49,10 +50,13 @@ public class SurfaceDefaultReplacer implements IBiomeBlockReplacer {
     protected static final IBlockState RED_SANDSTONE = Blocks.RED_SANDSTONE.getDefaultState();
     protected static final IBlockState SANDSTONE = Blocks.SANDSTONE.getDefaultState();
 
+    // index of the depth noise value in column context, NaN until it's first needed in the column
+    private static final int DEPTH = 0;
+
     private final IBuilder depthNoise;
     private final int maxPossibleDepth;
-    private IBlockState topBlock;
-    private IBlockState fillerBlock;
+    private volatile IBlockState topBlock;
+    private volatile IBlockState fillerBlock;
     private final double horizontalGradientDepthDecreaseWeight;
     private final double oceanHeight;
 
@@ -71,6 +75,44 @@ public class SurfaceDefaultReplacer implements IBiomeBlockReplacer {
      */
     @Override
     public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density) {
+        return getReplacedBlock(previousBlock, topBlock, fillerBlock, x, y, z, dx, dy, dz, density, null);
+    }
+
+    @Override
+    public void onColumnStart(int x, int z, ColumnContext context) {
+        context.set(DEPTH, Double.NaN);
+    }
+
+    @Override
+    public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density,
+            @Nullable ColumnContext context) {
+        return getReplacedBlock(previousBlock, topBlock, fillerBlock, x, y, z, dx, dy, dz, density, context);
+    }
+
+    /**
+     * Returns the depth noise value at the given column. Only computes it once per column when given the column context.
+     */
+    public double getDepth(int x, int z, @Nullable ColumnContext context) {
+        if (context == null) {
+            return depthNoise.get(x, 0, z);
+        }
+        double depth = context.get(DEPTH);
+        if (Double.isNaN(depth)) {
+            depth = depthNoise.get(x, 0, z);
+            context.set(DEPTH, depth);
+        }
+        return depth;
+    }
+
+    /**
+     * Same as {@link #getReplacedBlock(IBlockState, int, int, int, double, double, double, double)}, but uses the given
+     * surface and filler blocks instead of the ones this replacer was created with. Replacers that choose surface blocks
+     * per column use this instead of modifying a shared instance.
+     *
+     * @param context the column context, or null if the column wasn't started with {@link #onColumnStart(int, int, ColumnContext)}
+     */
+    public IBlockState getReplacedBlock(IBlockState previousBlock, IBlockState topBlock, IBlockState fillerBlock,
+            int x, int y, int z, double dx, double dy, double dz, double density, @Nullable ColumnContext context) {
         // skip everything below if there is no chance it will actually do something
         if (density > maxPossibleDepth * abs(dy) || density < 0) {
             return previousBlock;
@@ -78,16 +120,16 @@ public class SurfaceDefaultReplacer implements IBiomeBlockReplacer {
         if (previousBlock.getBlock() == Blocks.AIR) {
             return previousBlock;
         }
-        double depth = depthNoise.get(x, 0, z);
+        double depth = getDepth(x, z, context);
         double densityAdjusted = density / abs(dy);
         if (density + dy <= 0) { // if air above
             if (y < oceanHeight - 7 - depth) { // if we are deep into the ocean
                 return GRAVEL;
             }
             if (y < oceanHeight - 1) { // if just below the ocean level
-                return filler(previousBlock, depth);
+                return depth > 0 ? fillerBlock : previousBlock;
             }
-            return top(depth);
+            return depth > 0 ? topBlock : Blocks.AIR.getDefaultState();
         } else {
             double xzSize = Math.sqrt(dx * dx + dz * dz);
             double dyAdjusted = dy;
@@ -102,10 +144,22 @@ public class SurfaceDefaultReplacer implements IBiomeBlockReplacer {
         return previousBlock;
     }
 
+    /**
+     * @deprecated Changes the blocks for every user of this replacer. To choose surface blocks per column, use
+     * {@link #getReplacedBlock(IBlockState, IBlockState, IBlockState, int, int, int, double, double, double, double, ColumnContext)}.
+     * Will be removed in the next release.
+     */
+    @Deprecated
     public void setTopBlock(IBlockState topBlock) {
         this.topBlock = topBlock;
     }
 
+    /**
+     * @deprecated Changes the blocks for every user of this replacer. To choose surface blocks per column, use
+     * {@link #getReplacedBlock(IBlockState, IBlockState, IBlockState, int, int, int, double, double, double, double, ColumnContext)}.
+     * Will be removed in the next release.
+     */
+    @Deprecated
     public void setFillerBlock(IBlockState fillerBlock) {
         this.fillerBlock = fillerBlock;
     }
@@ -114,14 +168,6 @@ public class SurfaceDefaultReplacer implements IBiomeBlockReplacer {
         return depthNoise;
     }
 
-    private IBlockState filler(IBlockState prev, double depth) {
-        return depth > 0 ? fillerBlock : prev;
-    }
-
-    private IBlockState top(double depth) {
-        return depth > 0 ? topBlock : Blocks.AIR.getDefaultState();
-    }
-
     public static IBiomeBlockReplacerProvider provider() {
         return new IBiomeBlockReplacerProvider() {
             private final ResourceLocation HORIZONTAL_GRADIENT_DEC = CustomCubicMod.location("horizontal_gradient_depth_decrease_weight");
@@ -39,7 +39,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class TerrainShapeReplacer implements IBiomeBlockReplacer {
 
-    private IBlockState terrainFill;
+    private final IBlockState terrainFill;
 
     public TerrainShapeReplacer(IBlockState terrainFill) {
         this.terrainFill = terrainFill;
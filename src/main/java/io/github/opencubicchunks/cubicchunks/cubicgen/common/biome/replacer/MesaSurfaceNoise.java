@@ -0,0 +1,115 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.replacer;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.gen.NoiseGeneratorPerlin;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Clay band offset and pillar noise of {@link MesaSurfaceReplacer}, computed for a whole 16x16 block column at once.
+ * <p>
+ * Can be used from multiple threads. Recently used columns are kept in a small direct-mapped cache, each slot holds an
+ * immutable column that knows its own position, so a slot is replaced with a single write and a reader never sees a
+ * column with a mismatched key.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class MesaSurfaceNoise {
+
+    private static final int CACHE_RADIUS = 8;
+    private static final int CACHE_SIZE = CACHE_RADIUS * CACHE_RADIUS;
+
+    private final NoiseGeneratorPerlin bandOffsetNoise;
+    private final NoiseGeneratorPerlin pillarNoise;
+    private final NoiseGeneratorPerlin pillarRoofNoise;
+    // columns only have final fields, so they can be published through plain array writes
+    private final Column[] columns = new Column[CACHE_SIZE];
+
+    MesaSurfaceNoise(long seed, NoiseGeneratorPerlin bandOffsetNoise) {
+        this.bandOffsetNoise = bandOffsetNoise;
+        Random random = new Random(seed);
+        this.pillarNoise = new NoiseGeneratorPerlin(random, 4);
+        this.pillarRoofNoise = new NoiseGeneratorPerlin(random, 1);
+    }
+
+    /**
+     * Returns the noise values of the 16x16 block column containing the given block column
+     */
+    Column getColumn(int blockX, int blockZ) {
+        int columnX = Coords.blockToCube(blockX);
+        int columnZ = Coords.blockToCube(blockZ);
+        int index = Math.floorMod(columnX, CACHE_RADIUS) * CACHE_RADIUS + Math.floorMod(columnZ, CACHE_RADIUS);
+        Column column = columns[index];
+        if (column == null || column.columnX != columnX || column.columnZ != columnZ) {
+            column = new Column(this, columnX, columnZ);
+            columns[index] = column;
+        }
+        return column;
+    }
+
+    static final class Column {
+
+        private final int columnX, columnZ;
+        private final int[] bandOffsets = new int[16 * 16];
+        private final double[] pillar = new double[4 * 4];
+        private final double pillarRoof;
+
+        private Column(MesaSurfaceNoise noise, int columnX, int columnZ) {
+            this.columnX = columnX;
+            this.columnZ = columnZ;
+            int minX = Coords.cubeToMinBlock(columnX);
+            int minZ = Coords.cubeToMinBlock(columnZ);
+            for (int localZ = 0; localZ < 16; localZ++) {
+                for (int localX = 0; localX < 16; localX++) {
+                    double offset = noise.bandOffsetNoise.getValue((minX + localX) / 512.0, (minZ + localZ) / 512.0);
+                    bandOffsets[localZ << 4 | localX] = (int) Math.round(offset * 2.0D);
+                }
+            }
+            // pillar noise is sampled every 4 blocks and pillar roof noise every 512 blocks, and 16x16 columns are aligned to both
+            for (int z = 0; z < 4; z++) {
+                for (int x = 0; x < 4; x++) {
+                    pillar[z << 2 | x] = noise.pillarNoise.getValue((minX >> 2) + x, (minZ >> 2) + z);
+                }
+            }
+            this.pillarRoof = noise.pillarRoofNoise.getValue(minX >> 9, minZ >> 9);
+        }
+
+        int getBandOffset(int blockX, int blockZ) {
+            return bandOffsets[Coords.blockToLocal(blockZ) << 4 | Coords.blockToLocal(blockX)];
+        }
+
+        double getPillar(int blockX, int blockZ) {
+            return pillar[Coords.blockToLocal(blockZ) >> 2 << 2 | Coords.blockToLocal(blockX) >> 2];
+        }
+
+        double getPillarRoof() {
+            return pillarRoof;
+        }
+    }
+}
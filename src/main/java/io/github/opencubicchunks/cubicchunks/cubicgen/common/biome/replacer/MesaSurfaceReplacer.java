@@ -28,8 +28,8 @@ import static java.lang.Math.abs;
 import com.google.common.collect.Sets;
 import io.github.opencubicchunks.cubicchunks.cubicgen.ConversionUtils;
 import io.github.opencubicchunks.cubicchunks.cubicgen.CustomCubicMod;
-import io.github.opencubicchunks.cubicchunks.cubicgen.cache.HashCacheDoubles;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.BiomeBlockReplacerConfig;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ColumnContext;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ConfigOptionInfo;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacerProvider;
@@ -43,15 +43,13 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.item.EnumDyeColor;
 import net.minecraft.util.ResourceLocation;
-import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.BiomeMesa;
-import net.minecraft.world.gen.NoiseGeneratorPerlin;
 
 import java.util.Arrays;
-import java.util.Random;
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -68,9 +66,7 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
     private final BiomeMesa biomeMesa;
 
     private final IBlockState[] clayBands;
-    private final HashCacheDoubles<BlockPos> clayBandsOffsetNoise;
-    private final HashCacheDoubles<BlockPos> pillarNoise;
-    private final HashCacheDoubles<BlockPos> pillarRoofNoise;
+    private final MesaSurfaceNoise noise;
 
     protected static final IBlockState STAINED_HARDENED_CLAY = Blocks.STAINED_HARDENED_CLAY.getDefaultState();
     protected static final IBlockState AIR = Blocks.AIR.getDefaultState();
@@ -80,6 +76,11 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
     protected static final IBlockState HARDENED_CLAY = Blocks.HARDENED_CLAY.getDefaultState();
     protected static final IBlockState ORANGE_STAINED_HARDENED_CLAY = STAINED_HARDENED_CLAY.withProperty(BlockColored.COLOR, EnumDyeColor.ORANGE);
 
+    // indexes of values in column context, NaN until they are first needed in the column
+    private static final int DEPTH = 0;
+    private static final int PILLAR_HEIGHT = 1;
+    private static final int BAND_OFFSET = 2;
+
 
     public MesaSurfaceReplacer(World world, CubicBiome biome, IBuilder builder, double depth, double heightOffset, double heightScale, double waterHeight) {
         this.biomeMesa = (BiomeMesa) biome.getBiome();
@@ -94,30 +95,37 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
         // so that we don't cause issues when we replace clayBands and scrollOffset noise
         biomeMesa.worldSeed = world.getSeed();
         this.clayBands = Arrays.copyOf(biomeMesa.clayBands, biomeMesa.clayBands.length);
-        this.clayBandsOffsetNoise = HashCacheDoubles.create(
-                256, p -> p.getX() * 16 + p.getZ(), p -> biomeMesa.clayBandsOffsetNoise.getValue(p.getX() / 512.0, p.getZ() / 512.0)
-        );
-
-        Random random = new Random(world.getSeed());
-        NoiseGeneratorPerlin pillasPerlin = new NoiseGeneratorPerlin(random, 4);
-        this.pillarNoise = HashCacheDoubles.create(
-                256, p -> p.getX() * 16 + p.getZ(), p -> pillasPerlin.getValue(p.getX(), p.getZ())
-        );
-        NoiseGeneratorPerlin pillarRoofPerlin = new NoiseGeneratorPerlin(random, 1);
-        this.pillarRoofNoise = HashCacheDoubles.create(
-                256, p -> p.getX() * 16 + p.getZ(), p -> pillarRoofPerlin.getValue(p.getX(), p.getZ())
-        );
+        this.noise = new MesaSurfaceNoise(world.getSeed(), biomeMesa.clayBandsOffsetNoise);
         this.depthNoise = builder;
     }
 
     @Override public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density) {
+        return getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density, null);
+    }
+
+    @Override public void onColumnStart(int x, int z, ColumnContext context) {
+        context.set(DEPTH, Double.NaN);
+        context.set(BAND_OFFSET, Double.NaN);
+    }
+
+    @Override public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density,
+            @Nullable ColumnContext context) {
         if (density < 0) {
             return previousBlock;
         }
-        double depth = depthNoise.get(x, 0, z);
+        double depth = context == null ? Double.NaN : context.get(DEPTH);
+        double pillarHeight;
+        if (Double.isNaN(depth)) {
+            depth = depthNoise.get(x, 0, z);
+            pillarHeight = convertYFromVanilla(getPillarHeightVanilla(x, z, depth - 3));
+            if (context != null) {
+                context.set(DEPTH, depth);
+                context.set(PILLAR_HEIGHT, pillarHeight);
+            }
+        } else {
+            pillarHeight = context.get(PILLAR_HEIGHT);
+        }
         double origDepthNoise = depth - 3;
-        double pillarHeight = getPillarHeightVanilla(x, z, origDepthNoise);
-        pillarHeight = convertYFromVanilla(pillarHeight);
         if (y < pillarHeight) {
             // simulate pillar density ORed with te terrain
             density = Math.max(density, pillarHeight - y);
@@ -136,9 +144,9 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
         if (y >= waterHeight - 1) {
             if (biomeMesa.hasForest && y >= convertYFromVanilla(86) + depth * 2) {
                 top = coarse ? COARSE_DIRT : GRASS;
-                filler = getBand(x, y, z);
+                filler = getBand(x, y, z, context);
             } else if (y > waterHeight + 3 + depth) {
-                filler = getBand(x, y, z);
+                filler = getBand(x, y, z, context);
                 top = coarse ? HARDENED_CLAY : filler;
             } else {
                 top = filler = ORANGE_STAINED_HARDENED_CLAY;
@@ -165,12 +173,11 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
     private double getPillarHeightVanilla(int x, int z, double depth) {
         double pillarHeight = 0.0;
         if (biomeMesa.brycePillars) {
-            double pillarScale = Math.min(abs(depth),
-                    this.pillarNoise.get(new BlockPos(x * 0.25D, 0, z * 0.25D)));
+            MesaSurfaceNoise.Column column = noise.getColumn(x, z);
+            double pillarScale = Math.min(abs(depth), column.getPillar(x, z));
 
             if (pillarScale > 0.0D) {
-                double xzScale = 0.001953125D;
-                double pillarRoofVal = abs(this.pillarRoofNoise.get(new BlockPos(x * xzScale, 0, z * xzScale)));
+                double pillarRoofVal = abs(column.getPillarRoof());
                 pillarHeight = pillarScale * pillarScale * 2.5D;
                 double cutoffHeight = Math.ceil(pillarRoofVal * 50.0D) + 14.0D;
 
@@ -184,9 +191,15 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
         return pillarHeight;
     }
 
-    private IBlockState getBand(int blockX, int blockY, int blockZ) {
-        int offset = (int) Math.round(this.clayBandsOffsetNoise.get(new BlockPos(blockX, 0, blockX)) * 2.0D);
-        return clayBands[(blockY + offset + 64) & 63];
+    private IBlockState getBand(int blockX, int blockY, int blockZ, @Nullable ColumnContext context) {
+        double offset = context == null ? Double.NaN : context.get(BAND_OFFSET);
+        if (Double.isNaN(offset)) {
+            offset = noise.getColumn(blockX, blockZ).getBandOffset(blockX, blockZ);
+            if (context != null) {
+                context.set(BAND_OFFSET, offset);
+            }
+        }
+        return clayBands[(blockY + (int) offset + 64) & 63];
     }
 
 
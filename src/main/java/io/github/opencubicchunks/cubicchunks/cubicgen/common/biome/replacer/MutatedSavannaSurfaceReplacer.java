@@ -25,6 +25,7 @@ package io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.replacer;
 
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.CubicBiome;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.BiomeBlockReplacerConfig;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ColumnContext;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ConfigOptionInfo;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacerProvider;
@@ -37,6 +38,7 @@ import net.minecraft.world.World;
 
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -51,19 +53,27 @@ public class MutatedSavannaSurfaceReplacer implements IBiomeBlockReplacer {
     }
 
     @Override public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density) {
-        defaultReplacer.setTopBlock(Blocks.GRASS.getDefaultState());
-        defaultReplacer.setFillerBlock(Blocks.DIRT.getDefaultState());
+        return getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density, null);
+    }
+
+    @Override public void onColumnStart(int x, int z, ColumnContext context) {
+        defaultReplacer.onColumnStart(x, z, context);
+    }
 
-        double depth = (defaultReplacer.getDepthNoise().get(x, 0, z) - 3) * 3;
+    @Override public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density,
+            @Nullable ColumnContext context) {
+        double depth = (defaultReplacer.getDepth(x, z, context) - 3) * 3;
 
+        IBlockState top = Blocks.GRASS.getDefaultState();
+        IBlockState filler = Blocks.DIRT.getDefaultState();
         if (depth > 1.75D) {
-            defaultReplacer.setTopBlock(Blocks.STONE.getDefaultState());
-            defaultReplacer.setFillerBlock(Blocks.STONE.getDefaultState());
+            top = Blocks.STONE.getDefaultState();
+            filler = Blocks.STONE.getDefaultState();
         } else if (depth > -0.5D) {
-            defaultReplacer.setTopBlock(COARSE_DIRT);
+            top = COARSE_DIRT;
         }
 
-        return defaultReplacer.getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density);
+        return defaultReplacer.getReplacedBlock(previousBlock, top, filler, x, y, z, dx, dy, dz, density, context);
     }
 
     public static IBiomeBlockReplacerProvider provider() {
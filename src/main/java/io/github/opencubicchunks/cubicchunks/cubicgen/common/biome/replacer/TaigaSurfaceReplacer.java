@@ -25,6 +25,7 @@ package io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.replacer;
 
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.CubicBiome;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.BiomeBlockReplacerConfig;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ColumnContext;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ConfigOptionInfo;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacerProvider;
@@ -38,6 +39,7 @@ import net.minecraft.world.biome.BiomeTaiga;
 
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -47,27 +49,35 @@ public class TaigaSurfaceReplacer implements IBiomeBlockReplacer {
     public static final IBlockState COARSE_DIRT = Blocks.DIRT.getDefaultState().withProperty(BlockDirt.VARIANT, BlockDirt.DirtType.COARSE_DIRT);
     public static final IBlockState PODZOL = Blocks.DIRT.getDefaultState().withProperty(BlockDirt.VARIANT, BlockDirt.DirtType.PODZOL);
     private final SurfaceDefaultReplacer defaultReplacer;
-    private final BiomeTaiga biome;
+    private final boolean mega;
 
     public TaigaSurfaceReplacer(SurfaceDefaultReplacer defaultReplacer, BiomeTaiga biome) {
         this.defaultReplacer = defaultReplacer;
-        this.biome = biome;
+        this.mega = biome.type == BiomeTaiga.Type.MEGA || biome.type == BiomeTaiga.Type.MEGA_SPRUCE;
     }
 
     @Override public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density) {
-        if (biome.type == BiomeTaiga.Type.MEGA || biome.type == BiomeTaiga.Type.MEGA_SPRUCE) {
-            defaultReplacer.setTopBlock(Blocks.GRASS.getDefaultState());
-            defaultReplacer.setFillerBlock(Blocks.DIRT.getDefaultState());
+        return getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density, null);
+    }
 
-            double depth = (defaultReplacer.getDepthNoise().get(x, 0, z) - 3) * 3;
+    @Override public void onColumnStart(int x, int z, ColumnContext context) {
+        defaultReplacer.onColumnStart(x, z, context);
+    }
 
-            if (depth > 1.75D) {
-                defaultReplacer.setTopBlock(COARSE_DIRT);
-            } else if (depth > -0.95D) {
-                defaultReplacer.setTopBlock(PODZOL);
-            }
+    @Override public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density,
+            @Nullable ColumnContext context) {
+        if (!mega) {
+            return defaultReplacer.getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density, context);
+        }
+        double depth = (defaultReplacer.getDepth(x, z, context) - 3) * 3;
+
+        IBlockState top = Blocks.GRASS.getDefaultState();
+        if (depth > 1.75D) {
+            top = COARSE_DIRT;
+        } else if (depth > -0.95D) {
+            top = PODZOL;
         }
-        return defaultReplacer.getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density);
+        return defaultReplacer.getReplacedBlock(previousBlock, top, Blocks.DIRT.getDefaultState(), x, y, z, dx, dy, dz, density, context);
     }
 
     public static IBiomeBlockReplacerProvider provider() {
@@ -41,6 +41,7 @@ import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.cubicgen.ConversionUtils;
 import io.github.opencubicchunks.cubicchunks.cubicgen.CustomCubicMod;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.BiomeBlockReplacerConfig;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder.BiomeSource;
 import net.minecraft.block.BlockSilverfish;
 import net.minecraft.block.BlockStone;
 import net.minecraft.block.state.IBlockState;
@@ -85,6 +86,7 @@ public class CustomGeneratorSettings {
 
     public boolean strongholds = true;
     public boolean alternateStrongholdsPositions = false; // TODO: add to gui
+    public int strongholdCount = 128; // TODO: add to gui
     public boolean villages = true;
 
     public boolean mineshafts = true;
@@ -110,6 +112,16 @@ public class CustomGeneratorSettings {
     public int biomeSize = 4;
     public int riverSize = 4;
 
+    // radius in 4x4 block sections over which biome height and volatility are blended
+    public int biomeSmoothRadius = 2;
+    public BiomeSource.SmoothingKernel biomeSmoothKernel = BiomeSource.SmoothingKernel.INVERSE_DISTANCE;
+    // samples only a sparse grid of sections for large radii, much faster but less accurate
+    public boolean approximateBiomeSmoothing = false;
+
+    // rolls each population attempt separately like vanilla does. When disabled, only the number of successful attempts
+    // is sampled, which is faster but places features differently for the same seed
+    public boolean vanillaPopulationSampling = true;
+
     /**
      * Vanilla standard options
      * <p>
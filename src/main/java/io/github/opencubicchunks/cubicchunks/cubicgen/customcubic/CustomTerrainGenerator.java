@@ -30,12 +30,14 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.CubeGeneratorsRegistry
 import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.cubicgen.BasicCubeGenerator;
 import io.github.opencubicchunks.cubicchunks.cubicgen.CustomCubicMod;
+import io.github.opencubicchunks.cubicchunks.cubicgen.LiquidTrackingCubePrimer;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.CubicBiome;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.CubePopulatorEvent;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.ICubicPopulator;
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ColumnContext;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
 import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder.BiomeSource;
 import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder.IBuilder;
@@ -57,6 +59,7 @@ import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
 import org.lwjgl.input.Keyboard;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -90,6 +93,11 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
     @Nonnull private CubicStructureGenerator ravineGenerator;
     @Nonnull private CubicFeatureGenerator strongholds;
 
+    // replacers of the block column currently being generated, and their column contexts
+    @Nullable private List<IBiomeBlockReplacer> columnReplacers;
+    private ColumnContext[] columnContexts = new ColumnContext[0];
+    private int columnX, columnZ;
+
     public CustomTerrainGenerator(World world, final long seed) {
         this(world, CustomGeneratorSettings.fromJson(world.getWorldInfo().getGeneratorOptions()), seed);
     }
@@ -106,7 +114,8 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
         this.strongholds = new CubicStrongholdGenerator(conf);
         this.ravineGenerator = new CubicRavineGenerator(conf);
 
-        this.biomeSource = new BiomeSource(world, conf.createBiomeBlockReplacerConfig(), world.getBiomeProvider(), 2);
+        this.biomeSource = new BiomeSource(world, conf.createBiomeBlockReplacerConfig(), world.getBiomeProvider(),
+                conf.biomeSmoothRadius, conf.biomeSmoothKernel, conf.approximateBiomeSmoothing);
         initGenerator(seed);
 
         if (settings.cubeAreas != null) {
@@ -180,7 +189,8 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
                 return areaGenerators.get(aabb).generateCube(cubeX, cubeY, cubeZ);
             }
         }
-        CubePrimer primer = new CubePrimer();
+        // tracks liquids so that caves and ravines can skip scanning for them in most cubes
+        CubePrimer primer = new LiquidTrackingCubePrimer();
         generate(primer, cubeX, cubeY, cubeZ);
         generateStructures(primer, new CubePos(cubeX, cubeY, cubeZ));
         return primer;
@@ -211,6 +221,10 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
             // noticeable issues
             Random rand = Coords.coordsSeedRandom(cube.getWorld().getSeed(), cube.getX(), cube.getY(), cube.getZ());
 
+            // Population has to stay on the calling thread: cubes are handed to us one at a time, populators
+            // read and load neighbor cubes through the world, and vanilla world generators, biome lookups
+            // (IntCache) and lighting aren't thread-safe. Population write buffers are thread-confined for the
+            // same reason.
             populators.get(cubicBiome.getBiome()).generate(world, rand, pos, cubicBiome.getBiome());
             CubeGeneratorsRegistry.generateWorld(world, rand, pos, cubicBiome.getBiome());
 
@@ -247,6 +261,7 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
             initGenerator(42);
         }
 
+        columnReplacers = null;
         BlockPos start = new BlockPos(cubeX * 4, cubeY * 2, cubeZ * 4);
         BlockPos end = start.add(4, 2, 4);
         terrainBuilder.forEachScaled(start, end, new Vec3i(4, 8, 4),
@@ -264,15 +279,41 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
      * @return The block state
      */
     private IBlockState getBlock(int x, int y, int z, double dx, double dy, double dz, double density) {
-        List<IBiomeBlockReplacer> replacers = biomeSource.getReplacers(x, y, z);
+        List<IBiomeBlockReplacer> replacers = columnReplacers;
+        if (replacers == null || x != columnX || z != columnZ) {
+            replacers = startColumn(x, z);
+        }
         IBlockState block = Blocks.AIR.getDefaultState();
         int size = replacers.size();
         for (int i = 0; i < size; i++) {
-            block = replacers.get(i).getReplacedBlock(block, x, y, z, dx, dy, dz, density);
+            block = replacers.get(i).getReplacedBlock(block, x, y, z, dx, dy, dz, density, columnContexts[i]);
         }
         return block;
     }
 
+    /**
+     * Looks up biome block replacers of a block column and lets them compute values for the whole column. Blocks are
+     * generated one column at a time, so this is done once per column.
+     */
+    private List<IBiomeBlockReplacer> startColumn(int x, int z) {
+        List<IBiomeBlockReplacer> replacers = biomeSource.getReplacers(x, 0, z);
+        int size = replacers.size();
+        if (columnContexts.length < size) {
+            int oldSize = columnContexts.length;
+            columnContexts = Arrays.copyOf(columnContexts, size);
+            for (int i = oldSize; i < size; i++) {
+                columnContexts[i] = new ColumnContext();
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            replacers.get(i).onColumnStart(x, z, columnContexts[i]);
+        }
+        columnReplacers = replacers;
+        columnX = x;
+        columnZ = z;
+        return replacers;
+    }
+
     private void generateStructures(CubePrimer cube, CubePos cubePos) {
         // generate world populator
         if (this.conf.caves) {
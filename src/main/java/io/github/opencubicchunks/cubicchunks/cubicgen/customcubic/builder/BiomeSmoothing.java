@@ -0,0 +1,142 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.ConversionUtils;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.biome.Biome;
+
+import java.util.function.IntBinaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Weighted average of biome height and volatility of nearby 4x4 block sections, with per biome kernel weights
+ * precomputed so that smoothing a section only needs the biome ids of the sampled sections.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class BiomeSmoothing {
+
+    /**
+     * When approximating, the smoothing kernel is sampled on a sparse grid so that
+     * at most (2*APPROXIMATE_SAMPLE_RADIUS+1)^2 sections are looked at regardless of radius
+     */
+    private static final int APPROXIMATE_SAMPLE_RADIUS = 4;
+
+    /** Section offsets of the kernel samples, relative to the center section */
+    private final int[] sampleOffsetX, sampleOffsetZ;
+    /** Precomputed kernel weight divided by biome height, indexed by [biome id][sample index] */
+    private final double[][] biomeSampleWeights;
+    private final double[] biomeHeights;
+    private final double[] biomeVolatilities;
+
+    BiomeSmoothing(Iterable<Biome> biomes, int smoothRadius, BiomeSource.SmoothingKernel kernel, boolean approximate) {
+        if (smoothRadius < 0) {
+            throw new IllegalArgumentException("Biome smoothing radius must not be negative, but was " + smoothRadius);
+        }
+
+        int step = approximate ? Math.max(1, (smoothRadius + APPROXIMATE_SAMPLE_RADIUS - 1) / APPROXIMATE_SAMPLE_RADIUS) : 1;
+        int sampleRadius = smoothRadius / step;
+        int sampleDiameter = sampleRadius * 2 + 1;
+        int sampleCount = sampleDiameter * sampleDiameter;
+
+        this.sampleOffsetX = new int[sampleCount];
+        this.sampleOffsetZ = new int[sampleCount];
+        double[] kernelWeights = new double[sampleCount];
+        int i = 0;
+        for (int x = -sampleRadius; x <= sampleRadius; x++) {
+            for (int z = -sampleRadius; z <= sampleRadius; z++) {
+                this.sampleOffsetX[i] = x * step;
+                this.sampleOffsetZ[i] = z * step;
+                kernelWeights[i] = kernel.weight(x * step, z * step, smoothRadius);
+                i++;
+            }
+        }
+
+        int maxBiomeId = 0;
+        for (Biome biome : biomes) {
+            maxBiomeId = Math.max(maxBiomeId, Biome.getIdForBiome(biome));
+        }
+        this.biomeSampleWeights = new double[maxBiomeId + 1][];
+        this.biomeHeights = new double[maxBiomeId + 1];
+        this.biomeVolatilities = new double[maxBiomeId + 1];
+        for (Biome biome : biomes) {
+            int id = Biome.getIdForBiome(biome);
+            final double biomeHeight = biome.getBaseHeight();
+            double[] weights = new double[sampleCount];
+            for (int j = 0; j < sampleCount; j++) {
+                weights[j] = Math.abs(kernelWeights[j] / (biomeHeight + 2.0F));
+            }
+            this.biomeSampleWeights[id] = weights;
+            this.biomeHeights[id] = biomeHeight;
+            this.biomeVolatilities[id] = biome.getHeightVariation();
+        }
+    }
+
+    /**
+     * @param sectionBiomeIds biome id of the section at given section x and z coordinates
+     * @param sectionX x coordinate of the center section
+     * @param sectionZ z coordinate of the center section
+     * @return smoothed terrain data of the center section
+     */
+    BiomeSource.BiomeTerrainData smooth(IntBinaryOperator sectionBiomeIds, int sectionX, int sectionZ) {
+
+        // Calculate weighted average of nearby biomes height and volatility
+        double smoothVolatility = 0.0F;
+        double smoothHeight = 0.0F;
+
+        double biomeWeightSum = 0.0F;
+        final double centerBiomeHeight = biomeHeights[sectionBiomeIds.applyAsInt(sectionX, sectionZ)];
+
+        final int[] offsetX = this.sampleOffsetX;
+        final int[] offsetZ = this.sampleOffsetZ;
+        for (int i = 0; i < offsetX.length; i++) {
+            final int biome = sectionBiomeIds.applyAsInt(sectionX + offsetX[i], sectionZ + offsetZ[i]);
+
+            final double biomeHeight = biomeHeights[biome];
+            final double biomeVolatility = biomeVolatilities[biome];
+
+            double biomeWeight = biomeSampleWeights[biome][i];
+            if (biomeHeight > centerBiomeHeight) {
+                // prefer biomes with lower height?
+                biomeWeight /= 2.0F;
+            }
+            smoothVolatility += biomeVolatility * biomeWeight;
+            smoothHeight += biomeHeight * biomeWeight;
+
+            biomeWeightSum += biomeWeight;
+        }
+
+        smoothVolatility /= biomeWeightSum;
+        smoothHeight /= biomeWeightSum;
+
+        BiomeSource.BiomeTerrainData data = new BiomeSource.BiomeTerrainData();
+        // Convert from vanilla height/volatility format
+        // to something easier to predict
+        data.heightVariation = ConversionUtils.biomeHeightVariationVanilla((float) smoothVolatility);
+        data.height += ConversionUtils.biomeHeightVanilla((float) smoothHeight);
+        return data;
+    }
+}
@@ -25,7 +25,6 @@ package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder;
 
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
-import io.github.opencubicchunks.cubicchunks.cubicgen.ConversionUtils;
 import io.github.opencubicchunks.cubicchunks.cubicgen.cache.HashCache;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.CubicBiome;
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.BiomeBlockReplacerConfig;
@@ -43,6 +42,7 @@ import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntBinaryOperator;
 import java.util.function.ToIntFunction;
 
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -65,14 +65,14 @@ public class BiomeSource {
     private static final ToIntFunction<Vec3i> HASH_SECTIONS = v -> v.getX() * SECTIONS_CACHE_RADIUS + v.getZ();
 
     private final Map<Biome, List<IBiomeBlockReplacer>> biomeBlockReplacers = new IdentityHashMap<>();
-    private final double[] nearBiomeWeightArray;
+
+    private final BiomeSmoothing smoothing;
+    private final IntBinaryOperator sectionBiomeIds = this::getBiomeIdForSection;
 
     private BiomeProvider biomeGen;
-    private final int smoothRadius;
-    private final int smoothDiameter;
 
-    /** Mapping from chunk position to 4x4 sections 4x4 blocks each */
-    private final HashCache<ChunkPos, CubicBiome[]> biomeCacheSectionsChunk;
+    /** Mapping from chunk position to biome ids of 4x4 sections 4x4 blocks each */
+    private final HashCache<ChunkPos, int[]> biomeIdCacheSectionsChunk;
     /** Mapping from chunk positions to Cache with sections of 16x16 blocks (chunk) */
     private final HashCache<ChunkPos, CubicBiome[]> biomeCacheBlocks;
     /** Mapping from chunk positions to Cache with sections of 16x16 blocks (chunk) */
@@ -81,20 +81,15 @@ public class BiomeSource {
     private final HashCache<Vec3i, BiomeTerrainData> biomeDataCache;
 
     public BiomeSource(World world, BiomeBlockReplacerConfig conf, BiomeProvider biomeGen, int smoothRadius) {
-        this.biomeGen = biomeGen;
-        this.smoothRadius = smoothRadius;
-        this.smoothDiameter = smoothRadius * 2 + 1;
-
-        this.nearBiomeWeightArray = new double[this.smoothDiameter * this.smoothDiameter];
+        this(world, conf, biomeGen, smoothRadius, SmoothingKernel.INVERSE_DISTANCE, false);
+    }
 
-        for (int x = -this.smoothRadius; x <= this.smoothRadius; x++) {
-            for (int z = -this.smoothRadius; z <= this.smoothRadius; z++) {
-                final double val = 10.0F / Math.sqrt(x * x + z * z + 0.2F);
-                this.nearBiomeWeightArray[x + this.smoothRadius + (z + this.smoothRadius) * this.smoothDiameter] = val;
-            }
-        }
+    public BiomeSource(World world, BiomeBlockReplacerConfig conf, BiomeProvider biomeGen, int smoothRadius,
+            SmoothingKernel kernel, boolean approximate) {
+        this.biomeGen = biomeGen;
+        this.smoothing = new BiomeSmoothing(ForgeRegistries.BIOMES, smoothRadius, kernel, approximate);
 
-        this.biomeCacheSectionsChunk = HashCache.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateBiomeSections);
+        this.biomeIdCacheSectionsChunk = HashCache.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateBiomeSectionIds);
         this.biomeCacheBlocks = HashCache.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateBiomes);
         this.biomeDataCache = HashCache.create(SECTIONS_CACHE_SIZE, HASH_SECTIONS, this::generateBiomeTerrainData);
         this.biomeBlockReplacerCache = HashCache.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateReplacers);
@@ -117,45 +112,7 @@ public class BiomeSource {
     }
 
     private BiomeTerrainData generateBiomeTerrainData(Vec3i pos) {
-
-        // Calculate weighted average of nearby biomes height and volatility
-        double smoothVolatility = 0.0F;
-        double smoothHeight = 0.0F;
-
-        double biomeWeightSum = 0.0F;
-        final Biome centerBiomeConfig = getBiomeForSection(pos.getX(), pos.getZ()).getBiome();
-        final int lookRadius = this.smoothRadius;
-
-        for (int nextX = -lookRadius; nextX <= lookRadius; nextX++) {
-            for (int nextZ = -lookRadius; nextZ <= lookRadius; nextZ++) {
-                final Biome biome = getBiomeForSection(pos.getX() + nextX, pos.getZ() + nextZ).getBiome();
-
-                final double biomeHeight = biome.getBaseHeight();
-                final double biomeVolatility = biome.getHeightVariation();
-
-                double biomeWeight = calcBiomeWeight(nextX, nextZ, biomeHeight);
-
-                biomeWeight = Math.abs(biomeWeight);
-                if (biomeHeight > centerBiomeConfig.getBaseHeight()) {
-                    // prefer biomes with lower height?
-                    biomeWeight /= 2.0F;
-                }
-                smoothVolatility += biomeVolatility * biomeWeight;
-                smoothHeight += biomeHeight * biomeWeight;
-
-                biomeWeightSum += biomeWeight;
-            }
-        }
-
-        smoothVolatility /= biomeWeightSum;
-        smoothHeight /= biomeWeightSum;
-
-        BiomeTerrainData data = new BiomeTerrainData();
-        // Convert from vanilla height/volatility format
-        // to something easier to predict
-        data.heightVariation = ConversionUtils.biomeHeightVariationVanilla((float) smoothVolatility);
-        data.height += ConversionUtils.biomeHeightVanilla((float) smoothHeight);
-        return data;
+        return smoothing.smooth(sectionBiomeIds, pos.getX(), pos.getZ());
     }
 
     private CubicBiome[] generateBiomes(ChunkPos pos) {
@@ -165,10 +122,15 @@ public class BiomeSource {
                 ICube.SIZE, ICube.SIZE));
     }
 
-    private CubicBiome[] generateBiomeSections(ChunkPos pos) {
-        return mapToCubic(biomeGen.getBiomesForGeneration(null,
+    private int[] generateBiomeSectionIds(ChunkPos pos) {
+        Biome[] biomes = biomeGen.getBiomesForGeneration(null,
                 pos.x * SECTION_SIZE, pos.z * SECTION_SIZE,
-                SECTION_SIZE, SECTION_SIZE));
+                SECTION_SIZE, SECTION_SIZE);
+        int[] ids = new int[biomes.length];
+        for (int i = 0; i < biomes.length; i++) {
+            ids[i] = Biome.getIdForBiome(biomes[i]);
+        }
+        return ids;
     }
 
     private CubicBiome[] mapToCubic(Biome[] vanillaBiomes) {
@@ -205,22 +167,45 @@ public class BiomeSource {
         return biomeBlockReplacerCache.get(pos)[Coords.blockToLocal(blockZ) << 4 | Coords.blockToLocal(blockX)];
     }
 
-    private CubicBiome getBiomeForSection(int x, int z) {
+    private int getBiomeIdForSection(int x, int z) {
         int localX = Math.floorMod(x, 4);
         int localZ = Math.floorMod(z, 4);
 
         int chunkX = Math.floorDiv(x, 4);
         int chunkZ = Math.floorDiv(z, 4);
 
-        return biomeCacheSectionsChunk.get(new ChunkPos(chunkX, chunkZ))[localX + localZ * 4];
+        return biomeIdCacheSectionsChunk.get(new ChunkPos(chunkX, chunkZ))[localX + localZ * 4];
     }
 
-    private double calcBiomeWeight(int nextX, int nextZ, double biomeHeight) {
-        return this.nearBiomeWeightArray[nextX + this.smoothRadius + (nextZ + this.smoothRadius) * this.smoothDiameter] / (biomeHeight + 2.0F);
+    static final class BiomeTerrainData {
+
+        double height, heightVariation;
     }
 
-    private static final class BiomeTerrainData {
+    /**
+     * Shape of the kernel used to blend biome height and volatility of nearby 4x4 block sections
+     */
+    public enum SmoothingKernel {
+        /** Weight falls off with inverse of distance, the same kernel vanilla uses */
+        INVERSE_DISTANCE {
+            @Override double weight(int x, int z, int radius) {
+                return 10.0F / Math.sqrt(x * x + z * z + 0.2F);
+            }
+        },
+        /** Gaussian falloff with standard deviation of half the radius, gives softer transitions for large radii */
+        GAUSSIAN {
+            @Override double weight(int x, int z, int radius) {
+                double sigma = Math.max(radius, 1) * 0.5;
+                return 10.0 * Math.exp(-(x * x + z * z) / (2 * sigma * sigma));
+            }
+        },
+        /** All sections within the radius have equal weight */
+        FLAT {
+            @Override double weight(int x, int z, int radius) {
+                return 1.0;
+            }
+        };
 
-        double height, heightVariation;
+        abstract double weight(int x, int z, int radius);
     }
 }
@@ -192,19 +192,25 @@ public interface IBuilder {
         return (x, y, z) -> cache.get(new Vec3i(x, 0, z));
     }
 
+    /**
+     * Interpolates values of this builder sampled every {@code scale} blocks, and passes the interpolated values
+     * and gradients to the consumer. All values of a block column are passed at once, in order of increasing Y.
+     */
     default void forEachScaled(Vec3i startUnscaled, Vec3i endUnscaled, Vec3i scale, NoiseConsumer consumer) {
 
         if (scale.getZ() != scale.getX()) {
             throw new UnsupportedOperationException("X and Z scale must be the same!");
         }
-        final double/*[]*/[][] gradX = new double/*[scale.getX()]*/[scale.getY()][scale.getZ()];
-        final double[]/*[]*/[] gradY = new double[scale.getX()]/*[scale.getY()]*/[scale.getZ()];
-        final double[][]/*[]*/ gradZ = new double[scale.getX()][scale.getY()]/*[scale.getZ()]*/;
-        final double[][][] vals = new double[scale.getX()][scale.getY()][scale.getZ()];
-
         int xScale = scale.getX();
         int yScale = scale.getY();
         int zScale = scale.getZ();
+        int ySections = Math.max(0, endUnscaled.getY() - startUnscaled.getY());
+
+        // values for the whole height are kept so that each column can be passed at once
+        final double/*[]*/[][] gradX = new double/*[xScale]*/[ySections * yScale][zScale];
+        final double[][]/*[]*/[] gradY = new double[xScale][ySections]/*[yScale]*/[zScale];
+        final double[][]/*[]*/ gradZ = new double[xScale][ySections * yScale]/*[zScale]*/;
+        final double[][][] vals = new double[xScale][ySections * yScale][zScale];
 
         double stepX = 1.0 / xScale;
         double stepY = 1.0 / yScale;
@@ -222,6 +228,7 @@ public interface IBuilder {
                 int z = sectionZ * zScale;
                 for (int sectionY = minY; sectionY < maxY; ++sectionY) {
                     int y = sectionY * yScale;
+                    int yOffset = (sectionY - minY) * yScale;
 
                     final double v000 = this.get(x + xScale * 0, y + yScale * 0, z + zScale * 0);
                     final double v001 = this.get(x + xScale * 0, y + yScale * 0, z + zScale * 1);
@@ -261,12 +268,12 @@ public interface IBuilder {
 
                             // gradients start
                             final double d_dx__xyz = (v1yz - v0yz) * stepZ;
-                            gradX[yRel][xRel] = d_dx__xyz; // for this one x and z are swapped
-                            gradZ[xRel][yRel] = d_dz__xyz;
+                            gradX[yOffset + yRel][xRel] = d_dx__xyz; // for this one x and z are swapped
+                            gradZ[xRel][yOffset + yRel] = d_dz__xyz;
                             // gradients end
                             for (int zRel = 0; zRel < zScale; ++zRel) {
                                 // to get gradients working, consumer usage moved to later
-                                vals[xRel][yRel][zRel] = vxyz;
+                                vals[xRel][yOffset + yRel][zRel] = vxyz;
                                 vxyz += d_dz__xyz;
                             }
 
@@ -307,7 +314,7 @@ public interface IBuilder {
 
                             double d_dy__xyz = (vx1z - vx0z) * stepY;
 
-                            gradY[xRel][zRel] = d_dy__xyz;
+                            gradY[xRel][sectionY - minY][zRel] = d_dy__xyz;
 
                             vx0z += d_dx__x0z;
                             vx1z += d_dx__x1z;
@@ -317,19 +324,20 @@ public interface IBuilder {
                         v10z += d_dz__10z;
                         v11z += d_dz__11z;
                     }
+                    // gradients end
+                }
 
-                    for (int xRel = 0; xRel < xScale; ++xRel) {
-                        for (int zRel = 0; zRel < zScale; ++zRel) {
-                            for (int yRel = 0; yRel < yScale; ++yRel) {
-                                double vxyz = vals[xRel][yRel][zRel];
-                                double d_dx__xyz = gradX[yRel][zRel];
-                                double d_dy__xyz = gradY[xRel][zRel];
-                                double d_dz__xyz = gradZ[xRel][yRel];
-                                consumer.accept(x + xRel, y + yRel, z + zRel, d_dx__xyz, d_dy__xyz, d_dz__xyz, vxyz);
-                            }
+                int minBlockY = minY * yScale;
+                for (int xRel = 0; xRel < xScale; ++xRel) {
+                    for (int zRel = 0; zRel < zScale; ++zRel) {
+                        for (int yRel = 0; yRel < ySections * yScale; ++yRel) {
+                            double vxyz = vals[xRel][yRel][zRel];
+                            double d_dx__xyz = gradX[yRel][zRel];
+                            double d_dy__xyz = gradY[xRel][yRel / yScale][zRel];
+                            double d_dz__xyz = gradZ[xRel][yRel];
+                            consumer.accept(x + xRel, minBlockY + yRel, z + zRel, d_dx__xyz, d_dy__xyz, d_dz__xyz, vxyz);
                         }
                     }
-                    // gradients end
                 }
             }
         }
@@ -0,0 +1,69 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.ICubicPopulator;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Populator that writes blocks through a {@link PopulationWriteBuffer}, which is flushed after each populated cube.
+ * Populators opt in by extending this class, and should only write blocks through the buffer.
+ * <p>
+ * Buffers are reused by all buffered populators on the same thread. Populating a cube can cause another cube to be
+ * populated on the same thread, so each thread keeps a pool of them instead of a single one.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public abstract class BufferedPopulator implements ICubicPopulator {
+
+    private static final ThreadLocal<Deque<PopulationWriteBuffer>> BUFFERS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    @Override public final void generate(World world, Random random, CubePos pos, Biome biome) {
+        Deque<PopulationWriteBuffer> pool = BUFFERS.get();
+        PopulationWriteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = new PopulationWriteBuffer(world, pos);
+        } else {
+            buffer.reset(world, pos);
+        }
+        try {
+            generate(buffer, random, pos, biome);
+            buffer.flush();
+        } finally {
+            buffer.clear();
+            pool.push(buffer);
+        }
+    }
+
+    protected abstract void generate(PopulationWriteBuffer buffer, Random random, CubePos pos, Biome biome);
+}
@@ -23,9 +23,6 @@
  */
 package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
 
-import static io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator.PopulatorUtils.genOreBellCurve;
-import static io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator.PopulatorUtils.genOreUniform;
-
 import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.ICubicPopulator;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
@@ -34,7 +31,6 @@ import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGenerato
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.BlockFlower;
 import net.minecraft.block.material.Material;
-import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
@@ -43,13 +39,10 @@ import net.minecraft.world.biome.BiomeDecorator;
 import net.minecraft.world.gen.feature.WorldGenAbstractTree;
 import net.minecraft.world.gen.feature.WorldGenDeadBush;
 import net.minecraft.world.gen.feature.WorldGenLiquids;
-import net.minecraft.world.gen.feature.WorldGenMinable;
 import net.minecraft.world.gen.feature.WorldGenPumpkin;
 import net.minecraft.world.gen.feature.WorldGenerator;
 
 import java.util.Random;
-import java.util.Set;
-import java.util.function.Predicate;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -59,40 +52,33 @@ public final class DefaultDecorator implements ICubicPopulator {
 
     private final CustomGeneratorSettings cfg;
 
+    // vanilla world generators keep no state between calls, so one instance of each is enough
+    private final WorldGenerator deadBushGen = new WorldGenDeadBush();
+    private final WorldGenerator pumpkinGen = new WorldGenPumpkin();
+    private final WorldGenerator waterSourceGen = new WorldGenLiquids(Blocks.FLOWING_WATER);
+    private final WorldGenerator lavaSourceGen = new WorldGenLiquids(Blocks.FLOWING_LAVA);
+
+    private final HeightProbabilityTable waterSources;
+    private final HeightProbabilityTable lavaSources;
+
     public DefaultDecorator(CustomGeneratorSettings cfg) {
         this.cfg = cfg;
+        this.waterSources = new HeightProbabilityTable(y -> waterSourceProbabilityForY(cfg, y));
+        this.lavaSources = new HeightProbabilityTable(y -> lavaSourceProbabilityForY(cfg, y));
     }
 
-    public static class Ores implements ICubicPopulator {
+    public static class Ores extends BufferedPopulator {
 
-        private final CustomGeneratorSettings cfg;
+        private final OreIndex ores;
 
         public Ores(CustomGeneratorSettings cfg) {
-            this.cfg = cfg;
-         }
+            this.ores = OreIndex.forSettings(cfg);
+        }
 
-        @Override public void generate(World world, Random random, CubePos pos, Biome biome) {
+        @Override protected void generate(PopulationWriteBuffer buffer, Random random, CubePos pos, Biome biome) {
             // TODO: allow interleaved order
-            for (CustomGeneratorSettings.StandardOreConfig c : cfg.standardOres) {
-                if (c.biomes != null && !c.biomes.contains(biome)) {
-                    continue;
-                }
-                Set<IBlockState> states = c.genInBlockstates;
-                WorldGenMinable gen = states == null ?
-                        new WorldGenMinable(c.blockstate, c.spawnSize) :
-                        new WorldGenMinable(c.blockstate, c.spawnSize, states::contains);
-                genOreUniform(world, cfg, random, pos, c.spawnTries, c.spawnProbability, gen, c.minHeight, c.maxHeight);
-            }
-            for (CustomGeneratorSettings.PeriodicGaussianOreConfig c : cfg.periodicGaussianOres) {
-                if (c.biomes != null && !c.biomes.contains(biome)) {
-                    continue;
-                }
-                Set<IBlockState> states = c.genInBlockstates;
-                WorldGenMinable gen = states == null ?
-                        new WorldGenMinable(c.blockstate, c.spawnSize) :
-                        new WorldGenMinable(c.blockstate, c.spawnSize, states::contains);
-                genOreBellCurve(world, cfg, random, pos, c.spawnTries, c.spawnProbability, gen, c.heightMean, c.heightStdDeviation, c.heightSpacing,
-                        c.minHeight, c.maxHeight);
+            for (OreGenerator gen : ores.getGenerators(biome, pos.getY())) {
+                gen.generate(buffer, random, pos);
             }
         }
     }
@@ -126,12 +112,13 @@ public final class DefaultDecorator implements ICubicPopulator {
             }
         }
 
-        for (int i = 0; i < dec.flowersPerChunk; ++i) {
+        int flowerCount = attempts(random, dec.flowersPerChunk, 7);
+        for (int i = 0; i < flowerCount; ++i) {
             // vanilla chooses random height between 0 and topBlock+32.
             // Assuming average height a bit less than the average of sea level and 128,
             // then it should succeed about one in 5+2=7 times for a give cube
             // TODO: Flower gen: figure out the probabilities and do it right
-            if (random.nextInt(7) != 0) {
+            if (rejectAttempt(random, 7)) {
                 continue;
             }
             BlockPos blockPos = pos.randomPopulationPos(random);
@@ -145,12 +132,13 @@ public final class DefaultDecorator implements ICubicPopulator {
         }
 
 
-        for (int i = 0; i < dec.grassPerChunk; ++i) {
+        int grassCount = attempts(random, dec.grassPerChunk, 2);
+        for (int i = 0; i < grassCount; ++i) {
             // vanilla chooses random height between 0 and topBlock*2.
             // Then the grass generator goes down to find the top block.
             // grass underground is quite rare so we can assume it almost never happens
             // and generate only at the "real" top. And it will happen on average half of the time.
-            if (random.nextBoolean()) {
+            if (rejectHalf(random)) {
                 continue;
             }
             // because vanilla grass generator goes down looking for a solid block
@@ -163,22 +151,24 @@ public final class DefaultDecorator implements ICubicPopulator {
             }
         }
 
-        for (int i = 0; i < dec.deadBushPerChunk; ++i) {
+        int deadBushCount = attempts(random, dec.deadBushPerChunk, 2);
+        for (int i = 0; i < deadBushCount; ++i) {
             // same as above
-            if (random.nextBoolean()) {
+            if (rejectHalf(random)) {
                 continue;
             }
             int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
             int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
             BlockPos blockPos = cworld.getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.SOLID);
             if (blockPos != null) {
-                (new WorldGenDeadBush()).generate((World) world, random, blockPos);
+                deadBushGen.generate((World) world, random, blockPos);
             }
         }
 
-        for (int i = 0; i < dec.waterlilyPerChunk; ++i) {
+        int waterlilyCount = attempts(random, dec.waterlilyPerChunk, 2);
+        for (int i = 0; i < waterlilyCount; ++i) {
             // same as above
-            if (random.nextBoolean()) {
+            if (rejectHalf(random)) {
                 continue;
             }
             int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
@@ -190,38 +180,40 @@ public final class DefaultDecorator implements ICubicPopulator {
         }
 
         int mushroomCount = Math.max(dec.mushroomsPerChunk + 1, 1);
-        for (int i = 0; i < mushroomCount; ++i) {
-            if (random.nextInt(4) == 0) {
-                int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
-                int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
-                BlockPos top = cworld.getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.OPAQUE);
-                if (top != null) {
-                    dec.mushroomBrownGen.generate((World) world, random, top);
+        if (cfg.vanillaPopulationSampling) {
+            for (int i = 0; i < mushroomCount; ++i) {
+                if (random.nextInt(4) == 0) {
+                    generateBrownMushroom(world, random, pos, dec);
                 }
-            }
 
-            if (random.nextInt(8) == 0) {
-                // vanilla chooses random height between 0 and topBlock*2.
-                // The WorldGenBush (unlike WorldGenDeadBush and grass generator)
-                // won't go down to find the top block. It just attempts to generate at that position.
-                // So assuming vanilla average terrain height is 5*16, it would generate for one attempt in cube
-                // about one in 2*5=10 times
-                if (random.nextInt(10) != 0) {
-                    continue;
-                }
-                int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
-                int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
-                BlockPos blockPos = cworld.getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.OPAQUE);
-                if (blockPos != null) {
-                    dec.mushroomRedGen.generate((World) world, random, blockPos);
+                if (random.nextInt(8) == 0) {
+                    // vanilla chooses random height between 0 and topBlock*2.
+                    // The WorldGenBush (unlike WorldGenDeadBush and grass generator)
+                    // won't go down to find the top block. It just attempts to generate at that position.
+                    // So assuming vanilla average terrain height is 5*16, it would generate for one attempt in cube
+                    // about one in 2*5=10 times
+                    if (random.nextInt(10) != 0) {
+                        continue;
+                    }
+                    generateRedMushroom(world, random, pos, dec);
                 }
             }
+        } else {
+            int brownCount = PopulatorUtils.binomial(random, mushroomCount, 1.0 / 4);
+            for (int i = 0; i < brownCount; ++i) {
+                generateBrownMushroom(world, random, pos, dec);
+            }
+            // see the red mushroom explanation above
+            int redCount = PopulatorUtils.binomial(random, mushroomCount, 1.0 / (8 * 10));
+            for (int i = 0; i < redCount; ++i) {
+                generateRedMushroom(world, random, pos, dec);
+            }
         }
 
-        int reedCount = Math.max(dec.reedsPerChunk + 10, 10);
+        int reedCount = attempts(random, Math.max(dec.reedsPerChunk + 10, 10), 10);
         for (int i = 0; i < reedCount; ++i) {
             // same as for red mushrooms above
-            if (random.nextInt(10) != 0) {
+            if (rejectAttempt(random, 10)) {
                 continue;
             }
             int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
@@ -240,14 +232,15 @@ public final class DefaultDecorator implements ICubicPopulator {
 
             BlockPos blockPos = cworld.getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.OPAQUE);
             if (blockPos != null) {
-                (new WorldGenPumpkin()).generate((World) world, random, blockPos);
+                pumpkinGen.generate((World) world, random, blockPos);
             }
         }
 
 
-        for (int i = 0; i < dec.cactiPerChunk; ++i) {
+        int cactusCount = attempts(random, dec.cactiPerChunk, 10);
+        for (int i = 0; i < cactusCount; ++i) {
             // same as for red mushrooms above
-            if (random.nextInt(10) != 0) {
+            if (rejectAttempt(random, 10)) {
                 continue;
             }
             int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
@@ -260,7 +253,10 @@ public final class DefaultDecorator implements ICubicPopulator {
         }
 
 
-        if (dec.generateFalls) {
+        if (dec.generateFalls && !cfg.vanillaPopulationSampling) {
+            generateSources(world, random, pos, waterSources.forCube(pos.getY()), 50, waterSourceGen);
+            generateSources(world, random, pos, lavaSources.forCube(pos.getY()), 20, lavaSourceGen);
+        } else if (dec.generateFalls) {
             for (int i = 0; i < 50; ++i) {
                 int yOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
                 double prob = waterSourceProbabilityForY(cfg, pos.getMinBlockY() + yOffset);
@@ -270,7 +266,7 @@ public final class DefaultDecorator implements ICubicPopulator {
                 int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
                 int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
                 BlockPos blockPos = pos.getMinBlockPos().add(xOffset, yOffset, zOffset);
-                (new WorldGenLiquids(Blocks.FLOWING_WATER)).generate((World) world, random, blockPos);
+                waterSourceGen.generate((World) world, random, blockPos);
             }
 
 
@@ -283,13 +279,66 @@ public final class DefaultDecorator implements ICubicPopulator {
                 int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
                 int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
                 BlockPos blockPos = pos.getMinBlockPos().add(xOffset, yOffset, zOffset);
-                (new WorldGenLiquids(Blocks.FLOWING_LAVA)).generate((World) world, random, blockPos);
+                lavaSourceGen.generate((World) world, random, blockPos);
             }
 
         }
 
     }
 
+    /**
+     * Returns the number of attempts to make out of the given count, where each succeeds one in oneIn times. With vanilla
+     * sampling all attempts are made and rejected by {@link #rejectAttempt}, otherwise only the successful ones.
+     */
+    private int attempts(Random random, int count, int oneIn) {
+        return cfg.vanillaPopulationSampling ? count : PopulatorUtils.binomial(random, count, 1.0 / oneIn);
+    }
+
+    /**
+     * With vanilla sampling, rejects an attempt one in oneIn times. Otherwise {@link #attempts} already only returned the
+     * successful ones.
+     */
+    private boolean rejectAttempt(Random random, int oneIn) {
+        return cfg.vanillaPopulationSampling && random.nextInt(oneIn) != 0;
+    }
+
+    /**
+     * Same as {@link #rejectAttempt} with oneIn = 2, but uses nextBoolean like vanilla sampling always did
+     */
+    private boolean rejectHalf(Random random) {
+        return cfg.vanillaPopulationSampling && random.nextBoolean();
+    }
+
+    private void generateBrownMushroom(World world, Random random, CubePos pos, BiomeDecorator dec) {
+        int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+        int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+        BlockPos top = ((ICubicWorld) world).getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.OPAQUE);
+        if (top != null) {
+            dec.mushroomBrownGen.generate(world, random, top);
+        }
+    }
+
+    private void generateRedMushroom(World world, Random random, CubePos pos, BiomeDecorator dec) {
+        int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+        int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+        BlockPos blockPos = ((ICubicWorld) world).getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.OPAQUE);
+        if (blockPos != null) {
+            dec.mushroomRedGen.generate(world, random, blockPos);
+        }
+    }
+
+    private void generateSources(World world, Random random, CubePos pos, HeightProbabilityTable.CubeProbabilities probabilities,
+            int attempts, WorldGenerator generator) {
+        int count = PopulatorUtils.binomial(random, attempts, probabilities.getAttemptProbability());
+        for (int i = 0; i < count; ++i) {
+            int yOffset = probabilities.sampleYOffset(random);
+            int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+            int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+            BlockPos blockPos = pos.getMinBlockPos().add(xOffset, yOffset, zOffset);
+            generator.generate(world, random, blockPos);
+        }
+    }
+
     private double waterSourceProbabilityForY(CustomGeneratorSettings cfg, int y) {
         // exact vanilla probability distribution here involves harmonic series,
         // so no nice formula and no generalization for negative heights
@@ -32,6 +32,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.gen.feature.WorldGenDesertWells;
+import net.minecraft.world.gen.feature.WorldGenerator;
 
 import java.util.Random;
 
@@ -41,13 +42,15 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class DesertDecorator implements ICubicPopulator {
 
+    private final WorldGenerator wellGen = new WorldGenDesertWells();
+
     @Override public void generate(World world, Random random, CubePos pos, Biome biome) {
         if (random.nextInt(1000) == 0) {
             int xOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
             int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
             BlockPos blockpos = ((ICubicWorld) world).getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.OPAQUE);
             if (blockpos != null) {
-                (new WorldGenDesertWells()).generate((World) world, random, blockpos.up());
+                wellGen.generate((World) world, random, blockpos.up());
             }
         }
 
@@ -35,6 +35,7 @@ import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.BiomeForest;
 import net.minecraft.world.gen.feature.WorldGenAbstractTree;
 import net.minecraft.world.gen.feature.WorldGenBigMushroom;
+import net.minecraft.world.gen.feature.WorldGenerator;
 
 import java.util.Random;
 
@@ -44,6 +45,8 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class ForestDecorator implements ICubicPopulator {
 
+    private final WorldGenerator bigMushroomGen = new WorldGenBigMushroom();
+
     @Override public void generate(World world, Random random, CubePos pos, Biome biome) {
 
         if (((BiomeForest) biome).type == BiomeForest.Type.ROOFED) {
@@ -71,7 +74,7 @@ public class ForestDecorator implements ICubicPopulator {
                     continue;
                 }
                 if (random.nextInt(20) == 0) {
-                    new WorldGenBigMushroom().generate((World) world, random, blockpos);
+                    bigMushroomGen.generate((World) world, random, blockpos);
                 } else {
                     WorldGenAbstractTree generator = biome.getRandomTreeFeature(random);
                     generator.setDecorationDefaults();
@@ -0,0 +1,107 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntToDoubleFunction;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Height dependent probability of a population attempt, precomputed for each cube Y.
+ * <p>
+ * Attempts pick a random height in the population area of the cube and then succeed with a probability that depends on
+ * that height. For each cube this keeps the probability that an attempt succeeds at all, and the distribution of
+ * heights of successful attempts, so that successful attempts can be sampled directly.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class HeightProbabilityTable {
+
+    // cube Y range that is cached, others are computed each time
+    private static final int MIN_CACHED_CUBE_Y = -512;
+    private static final int CACHED_CUBES = 1024;
+
+    private final IntToDoubleFunction probabilityForY;
+    private final AtomicReferenceArray<CubeProbabilities> cubes = new AtomicReferenceArray<>(CACHED_CUBES);
+
+    HeightProbabilityTable(IntToDoubleFunction probabilityForY) {
+        this.probabilityForY = probabilityForY;
+    }
+
+    CubeProbabilities forCube(int cubeY) {
+        int index = cubeY - MIN_CACHED_CUBE_Y;
+        if (index < 0 || index >= CACHED_CUBES) {
+            return new CubeProbabilities(probabilityForY, cubeY);
+        }
+        CubeProbabilities probabilities = cubes.get(index);
+        if (probabilities == null) {
+            probabilities = new CubeProbabilities(probabilityForY, cubeY);
+            cubes.compareAndSet(index, null, probabilities);
+        }
+        return probabilities;
+    }
+
+    static final class CubeProbabilities {
+
+        // sum of probabilities of heights at population Y offsets up to and including each one
+        private final double[] cumulative = new double[ICube.SIZE];
+        private final double attemptProbability;
+
+        private CubeProbabilities(IntToDoubleFunction probabilityForY, int cubeY) {
+            double sum = 0;
+            for (int i = 0; i < ICube.SIZE; i++) {
+                sum += Math.min(1, Math.max(0, probabilityForY.applyAsDouble(Coords.cubeToMinBlock(cubeY) + i + ICube.SIZE / 2)));
+                cumulative[i] = sum;
+            }
+            this.attemptProbability = sum / ICube.SIZE;
+        }
+
+        /**
+         * Probability that a single attempt with a random height succeeds
+         */
+        double getAttemptProbability() {
+            return attemptProbability;
+        }
+
+        /**
+         * Returns the Y offset from the cube's min block of a successful attempt, distributed the same way as heights
+         * of successful attempts are
+         */
+        int sampleYOffset(Random random) {
+            double value = random.nextDouble() * cumulative[ICube.SIZE - 1];
+            for (int i = 0; i < ICube.SIZE - 1; i++) {
+                if (value < cumulative[i]) {
+                    return i + ICube.SIZE / 2;
+                }
+            }
+            return ICube.SIZE - 1 + ICube.SIZE / 2;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.gen.feature.WorldGenMelon;
+import net.minecraft.world.gen.feature.WorldGenerator;
 
 import java.util.Random;
 
@@ -41,6 +42,8 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class JungleDecorator implements ICubicPopulator {
 
+    private final WorldGenerator melonGen = new WorldGenMelon();
+
     @Override public void generate(World world, Random random, CubePos pos, Biome biome) {
         // BiomeJungle also uses WorldGenVines but it doesn't really do anything
 
@@ -50,7 +53,7 @@ public class JungleDecorator implements ICubicPopulator {
             int zOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
             BlockPos blockPos = ((ICubicWorld) world).getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType.OPAQUE);
             if (blockPos != null) {
-                (new WorldGenMelon()).generate((World) world, random, blockPos);
+                melonGen.generate((World) world, random, blockPos);
             }
         }
 
@@ -0,0 +1,294 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
+
+import com.google.common.base.Predicate;
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.util.MathUtil;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.BlockStone;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Generates veins of a single ore config. Everything derived from the config and generator settings is computed once
+ * when the generator is created, so generating a cube only has to place the veins.
+ * <p>
+ * Veins are placed the same way as {@link net.minecraft.world.gen.feature.WorldGenMinable} does, and use the random
+ * number generator the same way, but blocks are written through a {@link PopulationWriteBuffer}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+abstract class OreGenerator {
+
+    private final IBlockState state;
+    // null == natural stone, same as vanilla
+    @Nullable private final Predicate<IBlockState> replaceable;
+    // indexed by biome ID, null == no biome restrictions
+    @Nullable private final boolean[] biomes;
+    private final int spawnSize;
+    protected final int spawnTries;
+    protected final double probability;
+    protected final int minBlockY;
+    protected final int maxBlockY;
+
+    private OreGenerator(CustomGeneratorSettings cfg, IBlockState state, @Nullable Set<Biome> biomes,
+            @Nullable Set<IBlockState> genInBlockstates, int spawnSize, int spawnTries, double probability, double minY, double maxY) {
+        this.state = state;
+        this.replaceable = genInBlockstates == null ? null : genInBlockstates::contains;
+        if (biomes == null) {
+            this.biomes = null;
+        } else {
+            this.biomes = new boolean[256];
+            for (Biome biome : biomes) {
+                int id = Biome.getIdForBiome(biome);
+                if (id >= 0 && id < this.biomes.length) {
+                    this.biomes[id] = true;
+                }
+            }
+        }
+        this.spawnSize = spawnSize;
+        this.spawnTries = spawnTries;
+        this.probability = probability;
+        this.minBlockY = Math.round((float) (minY * cfg.expectedHeightVariation + cfg.expectedBaseHeight));
+        this.maxBlockY = Math.round((float) (maxY * cfg.expectedHeightVariation + cfg.expectedBaseHeight));
+    }
+
+    static OreGenerator uniform(CustomGeneratorSettings cfg, CustomGeneratorSettings.StandardOreConfig c) {
+        return new Uniform(cfg, c);
+    }
+
+    static OreGenerator bellCurve(CustomGeneratorSettings cfg, CustomGeneratorSettings.PeriodicGaussianOreConfig c) {
+        return new BellCurve(cfg, c);
+    }
+
+    boolean canGenerateIn(int biomeId) {
+        return this.biomes == null || (biomeId >= 0 && biomeId < this.biomes.length && this.biomes[biomeId]);
+    }
+
+    /**
+     * Lowest cube Y this generator needs to be used in, see {@link OreIndex}
+     */
+    int getMinCubeY() {
+        // bell curve ores use the random number generator even outside of their height range
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Highest cube Y this generator needs to be used in, see {@link OreIndex}
+     */
+    int getMaxCubeY() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Generates all veins of this ore for the cube at the given position
+     */
+    abstract void generate(PopulationWriteBuffer buffer, Random random, CubePos pos);
+
+    /**
+     * Places a single vein, equivalent to {@link net.minecraft.world.gen.feature.WorldGenMinable#generate}
+     */
+    protected void generateVein(PopulationWriteBuffer buffer, Random rand, int blockX, int blockY, int blockZ) {
+        int size = this.spawnSize;
+        float f = rand.nextFloat() * (float) Math.PI;
+        double x1 = (double) ((float) (blockX + 8) + MathHelper.sin(f) * (float) size / 8.0F);
+        double x2 = (double) ((float) (blockX + 8) - MathHelper.sin(f) * (float) size / 8.0F);
+        double z1 = (double) ((float) (blockZ + 8) + MathHelper.cos(f) * (float) size / 8.0F);
+        double z2 = (double) ((float) (blockZ + 8) - MathHelper.cos(f) * (float) size / 8.0F);
+        double y1 = (double) (blockY + rand.nextInt(3) - 2);
+        double y2 = (double) (blockY + rand.nextInt(3) - 2);
+
+        BlockPos.MutableBlockPos pos = buffer.getMutablePos();
+
+        for (int i = 0; i < size; ++i) {
+            float progress = (float) i / (float) size;
+            double centerX = x1 + (x2 - x1) * (double) progress;
+            double centerY = y1 + (y2 - y1) * (double) progress;
+            double centerZ = z1 + (z2 - z1) * (double) progress;
+            double radiusFactor = rand.nextDouble() * (double) size / 16.0D;
+            double diameterXZ = (double) (MathHelper.sin((float) Math.PI * progress) + 1.0F) * radiusFactor + 1.0D;
+            double diameterY = (double) (MathHelper.sin((float) Math.PI * progress) + 1.0F) * radiusFactor + 1.0D;
+            int minX = MathHelper.floor(centerX - diameterXZ / 2.0D);
+            int minY = MathHelper.floor(centerY - diameterY / 2.0D);
+            int minZ = MathHelper.floor(centerZ - diameterXZ / 2.0D);
+            int maxX = MathHelper.floor(centerX + diameterXZ / 2.0D);
+            int maxY = MathHelper.floor(centerY + diameterY / 2.0D);
+            int maxZ = MathHelper.floor(centerZ + diameterXZ / 2.0D);
+
+            for (int x = minX; x <= maxX; ++x) {
+                double dx = ((double) x + 0.5D - centerX) / (diameterXZ / 2.0D);
+                if (dx * dx >= 1.0D) {
+                    continue;
+                }
+                for (int y = minY; y <= maxY; ++y) {
+                    double dy = ((double) y + 0.5D - centerY) / (diameterY / 2.0D);
+                    if (dx * dx + dy * dy >= 1.0D) {
+                        continue;
+                    }
+                    for (int z = minZ; z <= maxZ; ++z) {
+                        double dz = ((double) z + 0.5D - centerZ) / (diameterXZ / 2.0D);
+                        if (dx * dx + dy * dy + dz * dz >= 1.0D) {
+                            continue;
+                        }
+                        pos.setPos(x, y, z);
+                        IBlockState current = buffer.getBlockState(pos);
+                        if (canReplace(buffer.getWorld(), current, pos)) {
+                            buffer.setBlockState(pos, this.state);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean canReplace(World world, IBlockState current, BlockPos pos) {
+        if (this.replaceable == null) {
+            return current.getBlock().isReplaceableOreGen(current, world, pos, OreGenerator::isNaturalStone);
+        }
+        return current.getBlock().isReplaceableOreGen(current, world, pos, this.replaceable);
+    }
+
+    private static boolean isNaturalStone(@Nullable IBlockState state) {
+        return state != null && state.getBlock() == Blocks.STONE && state.getValue(BlockStone.VARIANT).isNatural();
+    }
+
+    private static final class Uniform extends OreGenerator {
+
+        Uniform(CustomGeneratorSettings cfg, CustomGeneratorSettings.StandardOreConfig c) {
+            super(cfg, c.blockstate, c.biomes, c.genInBlockstates, c.spawnSize, c.spawnTries, c.spawnProbability, c.minHeight, c.maxHeight);
+        }
+
+        @Override int getMinCubeY() {
+            return Coords.blockToCube(minBlockY);
+        }
+
+        @Override int getMaxCubeY() {
+            return Coords.blockToCube(maxBlockY);
+        }
+
+        @Override void generate(PopulationWriteBuffer buffer, Random random, CubePos pos) {
+            if (pos.getMinBlockY() > maxBlockY || pos.getMaxBlockY() < minBlockY) {
+                return;
+            }
+            for (int i = 0; i < spawnTries; ++i) {
+                if (random.nextDouble() > probability) {
+                    continue;
+                }
+                int yOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+                int blockY = pos.getMinBlockY() + yOffset;
+                if (blockY > maxBlockY || blockY < minBlockY) {
+                    continue;
+                }
+                int xOffset = random.nextInt(ICube.SIZE);
+                int zOffset = random.nextInt(ICube.SIZE);
+                generateVein(buffer, random, pos.getMinBlockX() + xOffset, blockY, pos.getMinBlockZ() + zOffset);
+            }
+        }
+    }
+
+    private static final class BellCurve extends OreGenerator {
+
+        /**
+         * Longest period of the curve that is precomputed into a table
+         */
+        private static final int MAX_TABLE_SIZE = 1 << 16;
+
+        private final int mean;
+        private final double stdDev;
+        private final int spacing;
+        // one period of the curve starting at the mean, null if the curve couldn't be verified to repeat every spacing
+        @Nullable private final double[] curve;
+
+        BellCurve(CustomGeneratorSettings cfg, CustomGeneratorSettings.PeriodicGaussianOreConfig c) {
+            super(cfg, c.blockstate, c.biomes, c.genInBlockstates, c.spawnSize, c.spawnTries, c.spawnProbability, c.minHeight, c.maxHeight);
+            //temporary fix for slider becoming 0 at minimum position
+            double spacing = c.heightSpacing == 0.0 ? 0.5 : c.heightSpacing;
+            this.spacing = Math.round((float) (spacing * cfg.expectedHeightVariation));
+            this.mean = Math.round((float) ((double) c.heightMean * cfg.expectedHeightVariation + cfg.expectedBaseHeight));
+            this.stdDev = (double) c.heightStdDeviation * cfg.expectedHeightVariation;
+            this.curve = createCurveTable(this.mean, this.stdDev, this.spacing);
+        }
+
+        /**
+         * Samples one period of the curve. Values are kept as doubles, so that comparisons with the random numbers give
+         * exactly the same results as computing the curve each time.
+         */
+        @Nullable
+        private static double[] createCurveTable(int mean, double stdDev, int spacing) {
+            if (spacing <= 0 || spacing > MAX_TABLE_SIZE) {
+                return null;
+            }
+            double[] table = new double[spacing];
+            for (int i = 0; i < spacing; i++) {
+                table[i] = MathUtil.bellCurveProbabilityCyclic(mean + i, mean, stdDev, spacing);
+                // only use the table if the curve really repeats, both above and below the mean
+                if (table[i] != MathUtil.bellCurveProbabilityCyclic(mean + i + spacing, mean, stdDev, spacing)
+                        || table[i] != MathUtil.bellCurveProbabilityCyclic(mean + i - spacing, mean, stdDev, spacing)) {
+                    return null;
+                }
+            }
+            return table;
+        }
+
+        private double probabilityModifier(int blockY) {
+            if (curve == null) {
+                return MathUtil.bellCurveProbabilityCyclic(blockY, mean, stdDev, spacing);
+            }
+            return curve[Math.floorMod(blockY - mean, spacing)];
+        }
+
+        @Override void generate(PopulationWriteBuffer buffer, Random random, CubePos pos) {
+            for (int i = 0; i < spawnTries; ++i) {
+                int yOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+                int blockY = pos.getMinBlockY() + yOffset;
+                //skip all potential spawns outside the spawn range
+                if ((blockY > maxBlockY) || (blockY < minBlockY)) {
+                    continue;
+                }
+                double modifier = probabilityModifier(blockY);
+                //Modify base probability with the curve
+                if (random.nextDouble() > (probability * modifier)) {
+                    continue;
+                }
+                int xOffset = random.nextInt(ICube.SIZE);
+                int zOffset = random.nextInt(ICube.SIZE);
+                generateVein(buffer, random, pos.getMinBlockX() + xOffset, blockY, pos.getMinBlockZ() + zOffset);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.biome.Biome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Ore generators of generator settings, indexed by biome and cube Y.
+ * <p>
+ * Cube Y is split into bands, such that the same ore generators are used for all cubes in a band. The generators for a
+ * biome are looked up the first time a cube in that biome is populated, so populating a cube only touches the ores that
+ * can generate there, in the same order as in the settings.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class OreIndex {
+
+    private static final int BIOME_COUNT = 256;
+    private static final OreGenerator[] NO_GENERATORS = new OreGenerator[0];
+
+    private static final Map<CustomGeneratorSettings, OreIndex> INDEXES = new WeakHashMap<>();
+
+    private final OreGenerator[] generators;
+    // first cube Y of each band after the first one, the first band starts at Integer.MIN_VALUE
+    private final int[] bandStarts;
+    // per biome ID: generators for each band, created when first needed. The last one is for biomes without an ID
+    private final AtomicReferenceArray<OreGenerator[][]> biomeBands = new AtomicReferenceArray<>(BIOME_COUNT + 1);
+
+    private OreIndex(CustomGeneratorSettings cfg) {
+        this.generators = new OreGenerator[cfg.standardOres.size() + cfg.periodicGaussianOres.size()];
+        int i = 0;
+        for (CustomGeneratorSettings.StandardOreConfig c : cfg.standardOres) {
+            this.generators[i++] = OreGenerator.uniform(cfg, c);
+        }
+        for (CustomGeneratorSettings.PeriodicGaussianOreConfig c : cfg.periodicGaussianOres) {
+            this.generators[i++] = OreGenerator.bellCurve(cfg, c);
+        }
+
+        int[] starts = new int[this.generators.length * 2];
+        int count = 0;
+        for (OreGenerator gen : this.generators) {
+            if (gen.getMinCubeY() != Integer.MIN_VALUE) {
+                starts[count++] = gen.getMinCubeY();
+            }
+            if (gen.getMaxCubeY() != Integer.MAX_VALUE) {
+                starts[count++] = gen.getMaxCubeY() + 1;
+            }
+        }
+        Arrays.sort(starts, 0, count);
+        int unique = 0;
+        for (int j = 0; j < count; j++) {
+            if (unique == 0 || starts[j] != starts[unique - 1]) {
+                starts[unique++] = starts[j];
+            }
+        }
+        this.bandStarts = Arrays.copyOf(starts, unique);
+    }
+
+    /**
+     * Returns the ore index of the given settings, shared by all biomes generated with them
+     */
+    static OreIndex forSettings(CustomGeneratorSettings cfg) {
+        synchronized (INDEXES) {
+            return INDEXES.computeIfAbsent(cfg, OreIndex::new);
+        }
+    }
+
+    /**
+     * Returns the ore generators to use for a cube at the given Y in the given biome, in the same order as in the
+     * settings. The array must not be modified.
+     */
+    OreGenerator[] getGenerators(Biome biome, int cubeY) {
+        int biomeId = Biome.getIdForBiome(biome);
+        int slot = biomeId < 0 || biomeId >= BIOME_COUNT ? BIOME_COUNT : biomeId;
+        OreGenerator[][] bands = biomeBands.get(slot);
+        if (bands == null) {
+            bands = createBands(biomeId);
+            biomeBands.compareAndSet(slot, null, bands);
+        }
+        return bands[band(cubeY)];
+    }
+
+    private int band(int cubeY) {
+        int index = Arrays.binarySearch(bandStarts, cubeY);
+        // exact match is the start of band index + 1, otherwise the insertion point is the band
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private OreGenerator[][] createBands(int biomeId) {
+        OreGenerator[][] bands = new OreGenerator[bandStarts.length + 1][];
+        for (int band = 0; band < bands.length; band++) {
+            bands[band] = createBand(biomeId, band);
+            // neighbouring bands often use the same ores for a single biome, share the arrays
+            if (band > 0 && Arrays.equals(bands[band], bands[band - 1])) {
+                bands[band] = bands[band - 1];
+            }
+        }
+        return bands;
+    }
+
+    private OreGenerator[] createBand(int biomeId, int band) {
+        int minCubeY = band == 0 ? Integer.MIN_VALUE : bandStarts[band - 1];
+        int maxCubeY = band == bandStarts.length ? Integer.MAX_VALUE : bandStarts[band] - 1;
+        List<OreGenerator> list = new ArrayList<>();
+        for (OreGenerator gen : generators) {
+            if (gen.canGenerateIn(biomeId) && gen.getMinCubeY() <= maxCubeY && gen.getMaxCubeY() >= minCubeY) {
+                list.add(gen);
+            }
+        }
+        return list.isEmpty() ? NO_GENERATORS : list.toArray(NO_GENERATORS);
+    }
+}
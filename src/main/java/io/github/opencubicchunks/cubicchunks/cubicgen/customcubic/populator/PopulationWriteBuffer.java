@@ -0,0 +1,208 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Collects block changes made while populating a cube, and writes them into the cubes at the end.
+ * <p>
+ * Changes within the 2x2x2 cubes being populated (which are all loaded during population) are kept per cube and written
+ * directly into the cube by {@link #flush()}, skipping the lighting, neighbor and client updates of
+ * {@link World#setBlockState}. Reading through the buffer sees the buffered changes. Changes outside of these cubes,
+ * and changes to blocks whose light opacity or light value would change, still go through the world.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class PopulationWriteBuffer {
+
+    private static final int CUBE_VOLUME = ICube.SIZE * ICube.SIZE * ICube.SIZE;
+
+    private World world;
+    private int minCubeX, minCubeY, minCubeZ;
+
+    private final ICube[] cubes = new ICube[8];
+    // buffered block states per cube, indexed by local block position, null until something is written to the cube.
+    // Kept after flushing, so that a reused buffer doesn't allocate them again
+    private final IBlockState[][] states = new IBlockState[8][];
+    // local block indexes written in each cube, in the order they were first written
+    private final int[][] changed = new int[8][];
+    private final int[] changedCount = new int[8];
+
+    private final BlockPos.MutableBlockPos flushPos = new BlockPos.MutableBlockPos();
+    private final BlockPos.MutableBlockPos populatorPos = new BlockPos.MutableBlockPos();
+
+    public PopulationWriteBuffer(World world, CubePos pos) {
+        reset(world, pos);
+    }
+
+    /**
+     * Reuses this buffer for populating another cube, after {@link #clear()}
+     */
+    public void reset(World world, CubePos pos) {
+        this.world = world;
+        this.minCubeX = pos.getX();
+        this.minCubeY = pos.getY();
+        this.minCubeZ = pos.getZ();
+    }
+
+    /**
+     * Discards changes that weren't flushed and drops references to the world and cubes, so that a buffer kept for
+     * reuse doesn't keep them loaded
+     */
+    public void clear() {
+        for (int cubeIndex = 0; cubeIndex < 8; cubeIndex++) {
+            for (int i = 0; i < changedCount[cubeIndex]; i++) {
+                states[cubeIndex][changed[cubeIndex][i]] = null;
+            }
+            changedCount[cubeIndex] = 0;
+        }
+        Arrays.fill(this.cubes, null);
+        this.world = null;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Returns a mutable position for the populator using this buffer, so that it doesn't allocate one for each feature.
+     * Its value isn't kept between cubes.
+     */
+    public BlockPos.MutableBlockPos getMutablePos() {
+        return populatorPos;
+    }
+
+    public IBlockState getBlockState(BlockPos pos) {
+        int cubeIndex = cubeIndex(pos);
+        if (cubeIndex < 0) {
+            return world.getBlockState(pos);
+        }
+        IBlockState[] cubeStates = states[cubeIndex];
+        if (cubeStates != null) {
+            IBlockState state = cubeStates[localIndex(pos)];
+            if (state != null) {
+                return state;
+            }
+        }
+        return getCube(cubeIndex).getBlockState(pos);
+    }
+
+    /**
+     * Sets the block state at the given position, like {@link World#setBlockState(BlockPos, IBlockState, int)} with
+     * flag 2 would once {@link #flush()} is called
+     */
+    public void setBlockState(BlockPos pos, IBlockState state) {
+        int cubeIndex = cubeIndex(pos);
+        if (cubeIndex < 0) {
+            world.setBlockState(pos, state, 2);
+            return;
+        }
+        IBlockState[] cubeStates = states[cubeIndex];
+        if (cubeStates == null) {
+            cubeStates = new IBlockState[CUBE_VOLUME];
+            states[cubeIndex] = cubeStates;
+            changed[cubeIndex] = new int[64];
+        }
+        int localIndex = localIndex(pos);
+        if (cubeStates[localIndex] == null) {
+            int count = changedCount[cubeIndex];
+            if (count == changed[cubeIndex].length) {
+                changed[cubeIndex] = Arrays.copyOf(changed[cubeIndex], count * 2);
+            }
+            changed[cubeIndex][count] = localIndex;
+            changedCount[cubeIndex] = count + 1;
+        }
+        cubeStates[localIndex] = state;
+    }
+
+    /**
+     * Writes all buffered changes into the cubes, one cube at a time
+     */
+    public void flush() {
+        for (int cubeIndex = 0; cubeIndex < 8; cubeIndex++) {
+            IBlockState[] cubeStates = states[cubeIndex];
+            if (changedCount[cubeIndex] == 0) {
+                continue;
+            }
+            ICube cube = getCube(cubeIndex);
+            int[] cubeChanged = changed[cubeIndex];
+            int minBlockX = Coords.cubeToMinBlock(minCubeX + (cubeIndex >> 2));
+            int minBlockY = Coords.cubeToMinBlock(minCubeY + (cubeIndex >> 1 & 1));
+            int minBlockZ = Coords.cubeToMinBlock(minCubeZ + (cubeIndex & 1));
+            for (int i = 0, count = changedCount[cubeIndex]; i < count; i++) {
+                int localIndex = cubeChanged[i];
+                IBlockState state = cubeStates[localIndex];
+                cubeStates[localIndex] = null;
+                flushPos.setPos(minBlockX + (localIndex >> 8), minBlockY + (localIndex >> 4 & 0xF), minBlockZ + (localIndex & 0xF));
+                IBlockState current = cube.getBlockState(flushPos);
+                if (current == state) {
+                    continue;
+                }
+                // the world also updates lighting, only skip it when the new block doesn't change it
+                if (current.getLightOpacity() != state.getLightOpacity() || current.getLightValue() != state.getLightValue()) {
+                    world.setBlockState(flushPos, state, 2);
+                } else {
+                    cube.setBlockState(flushPos.toImmutable(), state);
+                }
+            }
+            changedCount[cubeIndex] = 0;
+        }
+    }
+
+    private int cubeIndex(BlockPos pos) {
+        int dx = Coords.blockToCube(pos.getX()) - minCubeX;
+        int dy = Coords.blockToCube(pos.getY()) - minCubeY;
+        int dz = Coords.blockToCube(pos.getZ()) - minCubeZ;
+        if ((dx | dy | dz) < 0 || dx > 1 || dy > 1 || dz > 1) {
+            return -1;
+        }
+        return dx << 2 | dy << 1 | dz;
+    }
+
+    private static int localIndex(BlockPos pos) {
+        return Coords.blockToLocal(pos.getX()) << 8 | Coords.blockToLocal(pos.getY()) << 4 | Coords.blockToLocal(pos.getZ());
+    }
+
+    private ICube getCube(int cubeIndex) {
+        ICube cube = cubes[cubeIndex];
+        if (cube == null) {
+            cube = ((ICubicWorld) world).getCubeFromCubeCoords(
+                    minCubeX + (cubeIndex >> 2), minCubeY + (cubeIndex >> 1 & 1), minCubeZ + (cubeIndex & 1));
+            cubes[cubeIndex] = cube;
+        }
+        return cube;
+    }
+}
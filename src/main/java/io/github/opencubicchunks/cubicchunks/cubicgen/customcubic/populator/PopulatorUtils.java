@@ -93,4 +93,29 @@ public class PopulatorUtils {
             generator.generate((World) world, random, new BlockPos(pos.getMinBlockX() + xOffset, blockY, pos.getMinBlockZ() + zOffset));
         }
     }
+
+    /**
+     * Returns the number of successes out of the given amount of attempts that each succeed with the given probability,
+     * drawing random numbers only for the gaps between successes (geometric distribution) instead of for each attempt.
+     */
+    public static int binomial(Random random, int attempts, double probability) {
+        if (attempts <= 0 || probability <= 0) {
+            return 0;
+        }
+        if (probability >= 1) {
+            return attempts;
+        }
+        double logFailure = Math.log1p(-probability);
+        int successes = 0;
+        int attempt = 0;
+        while (true) {
+            // number of failed attempts before the next success
+            double skipped = Math.floor(Math.log(1 - random.nextDouble()) / logFailure);
+            if (skipped >= attempts - attempt) {
+                return successes;
+            }
+            attempt += (int) skipped + 1;
+            successes++;
+        }
+    }
 }
@@ -35,6 +35,7 @@ import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.gen.feature.WorldGenDungeons;
 import net.minecraft.world.gen.feature.WorldGenLakes;
+import net.minecraft.world.gen.feature.WorldGenerator;
 
 import java.util.Random;
 
@@ -46,13 +47,17 @@ public class PrePopulator implements ICubicPopulator {
 
     private final CustomGeneratorSettings cfg;
 
+    private final WorldGenerator waterLakeGen = new WorldGenLakes(Blocks.WATER);
+    private final WorldGenerator lavaLakeGen = new WorldGenLakes(Blocks.LAVA);
+    private final WorldGenerator dungeonGen = new WorldGenDungeons();
+
     public PrePopulator(CustomGeneratorSettings cfg) {
         this.cfg = cfg;
     }
 
     @Override public void generate(World world, Random random, CubePos pos, Biome biome) {
         if (biome != Biomes.DESERT && biome != Biomes.DESERT_HILLS && cfg.waterLakes && random.nextInt(cfg.waterLakeRarity) == 0) {
-            (new WorldGenLakes(Blocks.WATER)).generate((World) world, random, pos.randomPopulationPos(random));
+            waterLakeGen.generate((World) world, random, pos.randomPopulationPos(random));
         }
 
         if (random.nextInt(cfg.lavaLakeRarity) == 0 && cfg.lavaLakes) {
@@ -64,14 +69,14 @@ public class PrePopulator implements ICubicPopulator {
 
                 if (blockY < cfg.waterLevel || random.nextInt(cfg.aboveSeaLavaLakeRarity) == 0) {
                     BlockPos blockPos = pos.getMinBlockPos().add(xOffset, yOffset, zOffset);
-                    (new WorldGenLakes(Blocks.LAVA)).generate((World) world, random, blockPos);
+                    lavaLakeGen.generate((World) world, random, blockPos);
                 }
             }
         }
 
         if (cfg.dungeons) {
             for (int i = 0; i < cfg.dungeonCount; ++i) {
-                (new WorldGenDungeons()).generate((World) world, random, pos.randomPopulationPos(random));
+                dungeonGen.generate((World) world, random, pos.randomPopulationPos(random));
             }
         }
 
@@ -23,44 +23,145 @@
  */
 package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
 
-import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
-import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.ICubicPopulator;
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.material.Material;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeProvider;
 
 import java.util.Random;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Places ice and snow on the surface of cold biomes using {@link World#canBlockFreezeWater} and {@link World#canSnowAt}.
+ * For each cube, biomes of the population area are fetched once per chunk from the biome cache, and the surface of all
+ * columns is found in one pass over the blocks of the population area. Only columns cold enough for snow or ice are
+ * passed to the world. All changes are written into the cubes at once through a {@link PopulationWriteBuffer}.
+ */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class SurfaceSnowPopulator implements ICubicPopulator {
+public class SurfaceSnowPopulator extends BufferedPopulator {
+
+    private static final float FREEZE_TEMPERATURE = 0.15F;
+    /**
+     * How much colder the top block may be than the block above it. Temperature only decreases with height, except at
+     * y=65 where up to 4 blocks of height noise start to apply, which is at most 3 * 0.05 / 30 warmer than y=64.
+     */
+    private static final float TEMPERATURE_MARGIN = 0.01F;
+
+    private static final int NO_SURFACE = Integer.MIN_VALUE;
+
+    private static final ThreadLocal<Columns> COLUMNS = ThreadLocal.withInitial(Columns::new);
+
+    @Override protected void generate(PopulationWriteBuffer buffer, Random random, CubePos pos, Biome biome) {
+        Columns columns = COLUMNS.get();
+        if (columns.inUse) {
+            // the world checks caused another cube to be populated on this thread
+            columns = new Columns();
+        }
+        columns.inUse = true;
+        try {
+            generate(buffer, pos, columns);
+        } finally {
+            columns.inUse = false;
+        }
+    }
+
+    private void generate(PopulationWriteBuffer buffer, CubePos pos, Columns columns) {
+        World world = buffer.getWorld();
+        BlockPos.MutableBlockPos mutablePos = columns.pos;
+
+        // the population area covers a quarter of 4 chunks, their biomes come from the same cache the columns were
+        // generated from
+        BiomeProvider biomeProvider = world.getBiomeProvider();
+        for (int chunk = 0; chunk < 4; chunk++) {
+            columns.biomes[chunk] = biomeProvider.getBiomes(columns.biomes[chunk],
+                    Coords.cubeToMinBlock(pos.getX() + (chunk >> 1)), Coords.cubeToMinBlock(pos.getZ() + (chunk & 1)),
+                    ICube.SIZE, ICube.SIZE);
+        }
+
+        int minX = Coords.cubeToMinBlock(pos.getX()) + ICube.SIZE / 2;
+        int minZ = Coords.cubeToMinBlock(pos.getZ()) + ICube.SIZE / 2;
+        findSurface(buffer, Coords.cubeToMinBlock(pos.getY()), minX, minZ, columns);
 
-    @Override public void generate(World world, Random random, CubePos pos, Biome biome) {
         for (int dx = 0; dx < ICube.SIZE; ++dx) {
             for (int dz = 0; dz < ICube.SIZE; ++dz) {
+                int surfaceY = columns.surfaceY[dx << 4 | dz];
+                if (surfaceY == NO_SURFACE) {
+                    continue;
+                }
                 int xOffset = dx + ICube.SIZE / 2;
                 int zOffset = dz + ICube.SIZE / 2;
-                BlockPos aboveTop = ((ICubicWorld) world).getSurfaceForCube(pos, xOffset, zOffset, 0, ICubicWorld.SurfaceType
-                        .BLOCKING_MOVEMENT);
-                if (aboveTop == null) {
+                Biome columnBiome = columns.biomes[(xOffset >> 4) << 1 | zOffset >> 4][(zOffset & 15) << 4 | xOffset & 15];
+                mutablePos.setPos(minX + dx, surfaceY, minZ + dz);
+                // too warm for both snow above the top block and ice in it, the world would check it again otherwise
+                if (columnBiome.getTemperature(mutablePos) >= FREEZE_TEMPERATURE + TEMPERATURE_MARGIN) {
                     continue;
                 }
+                BlockPos aboveTop = mutablePos.toImmutable();
                 BlockPos topBlock = aboveTop.down();
-
+                // snow can't be placed on ice, and the ice is only in the buffer so the world doesn't see it yet
                 if (world.canBlockFreezeWater(topBlock)) {
-                    world.setBlockState(topBlock, Blocks.ICE.getDefaultState(), 2);
+                    buffer.setBlockState(topBlock, Blocks.ICE.getDefaultState());
+                } else if (world.canSnowAt(aboveTop, true)) {
+                    buffer.setBlockState(aboveTop, Blocks.SNOW_LAYER.getDefaultState());
                 }
+            }
+        }
+    }
 
-                if (world.canSnowAt(aboveTop, true)) {
-                    world.setBlockState(aboveTop, Blocks.SNOW_LAYER.getDefaultState(), 2);
+    /**
+     * Finds the position above the top block of each column, like
+     * {@code getSurfaceForCube(pos, xOffset, zOffset, 0, SurfaceType.BLOCKING_MOVEMENT)}: columns are scanned down
+     * from the top of the population area, and only surfaces in the middle 16 blocks of it are used. All blocks are read
+     * from the cubes of the population area, without going through the world.
+     */
+    private static void findSurface(PopulationWriteBuffer buffer, int minBlockY, int minX, int minZ, Columns columns) {
+        BlockPos.MutableBlockPos mutablePos = columns.pos;
+        int startY = minBlockY + ICube.SIZE * 2 - 1;
+        int minFreeY = minBlockY + ICube.SIZE / 2;
+        int maxFreeY = minBlockY + ICube.SIZE + ICube.SIZE / 2 - 1;
+        for (int dx = 0; dx < ICube.SIZE; ++dx) {
+            for (int dz = 0; dz < ICube.SIZE; ++dz) {
+                int x = minX + dx;
+                int z = minZ + dz;
+                int surfaceY = NO_SURFACE;
+                // if the top block is a surface, what is above it isn't known
+                if (!isSurface(buffer, mutablePos.setPos(x, startY, z))) {
+                    int y = startY;
+                    while (y >= minFreeY && !isSurface(buffer, mutablePos.setPos(x, y - 1, z))) {
+                        y--;
+                    }
+                    if (y >= minFreeY && y <= maxFreeY) {
+                        surfaceY = y;
+                    }
                 }
+                columns.surfaceY[dx << 4 | dz] = surfaceY;
             }
         }
     }
+
+    private static boolean isSurface(PopulationWriteBuffer buffer, BlockPos pos) {
+        Material material = buffer.getBlockState(pos).getMaterial();
+        return material.blocksMovement() || material.isLiquid();
+    }
+
+    /**
+     * Per thread arrays reused for each populated cube
+     */
+    private static final class Columns {
+
+        /** Biomes of the 4 chunks the population area overlaps, indexed by chunk x offset * 2 + chunk z offset */
+        private final Biome[][] biomes = new Biome[4][];
+        /** Y coordinate above the top block of each column, or NO_SURFACE, indexed by dx * 16 + dz */
+        private final int[] surfaceY = new int[ICube.SIZE * ICube.SIZE];
+        private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        private boolean inUse;
+    }
 }
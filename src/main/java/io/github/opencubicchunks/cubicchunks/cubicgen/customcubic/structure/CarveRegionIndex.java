@@ -0,0 +1,187 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Spatial index of carved structure systems (caves, ravines), bucketed by regions of cubes.
+ * <p>
+ * For each region it keeps the systems whose carved volume overlaps the region and whose origin is within scan range
+ * of at least one cube in the region, in the same order {@link CubicStructureGenerator} iterates over origins. This way
+ * generating a cube only needs to look at the few systems that can actually reach it, instead of every origin in
+ * range. Only a bounded amount of regions is kept, least recently used regions are evicted first.
+ * <p>
+ * Assumes spacing of 2 between origins, as used by caves and ravines.
+ *
+ * @param <T> type of the carve steps, for systems that store additional data with the steps
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class CarveRegionIndex<T extends CarveSteps> {
+
+    /** Regions are 4x4x4 cubes */
+    private static final int REGION_BITS = 2;
+    private static final int REGION_SIZE = 1 << REGION_BITS;
+
+    private final int radius;
+    private final StructureStartBits.OriginPredicate hasStructure;
+    private final Function<CubePos, T> systemSource;
+    private final Map<Long, Region<T>> regions;
+
+    /**
+     * @param range the structure generator range, origins within range + 1 cubes of a cube can affect it
+     * @param maxRegions maximum amount of regions to keep in memory
+     * @param hasStructure cheap test for whether any system starts at given origin
+     * @param systemSource returns carve steps of the system that starts at given origin, expected to be cached
+     */
+    CarveRegionIndex(int range, int maxRegions, StructureStartBits.OriginPredicate hasStructure,
+            Function<CubePos, T> systemSource) {
+        this.radius = range + 1;
+        this.hasStructure = hasStructure;
+        this.systemSource = systemSource;
+        this.regions = new LinkedHashMap<Long, Region<T>>(maxRegions * 2, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, Region<T>> eldest) {
+                return size() > maxRegions;
+            }
+        };
+    }
+
+    /**
+     * Calls the consumer for each system that may carve blocks in the given cube, in origin iteration order of
+     * {@link CubicStructureGenerator#generate(net.minecraft.world.World, io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer, CubePos)}
+     */
+    void forEachSystem(CubePos cubePos, SystemConsumer<? super T> consumer) {
+        Region<T> region = getRegion(cubePos.getX() >> REGION_BITS, cubePos.getY() >> REGION_BITS, cubePos.getZ() >> REGION_BITS);
+
+        int minOriginX = (cubePos.getX() | 1) - radius, maxOriginX = (cubePos.getX() | 1) + radius;
+        int minOriginY = (cubePos.getY() | 1) - radius, maxOriginY = (cubePos.getY() | 1) + radius;
+        int minOriginZ = (cubePos.getZ() | 1) - radius, maxOriginZ = (cubePos.getZ() | 1) + radius;
+
+        for (int i = 0; i < region.size; i++) {
+            int originX = region.originX[i];
+            int originY = region.originY[i];
+            int originZ = region.originZ[i];
+            // the region contains systems for all origins in range of any cube in the region, keep only the ones this cube would see
+            if (originX < minOriginX || originX > maxOriginX ||
+                    originY < minOriginY || originY > maxOriginY ||
+                    originZ < minOriginZ || originZ > maxOriginZ) {
+                continue;
+            }
+            T system = region.systems.get(i);
+            if (system.intersects(cubePos)) {
+                consumer.accept(originX, originY, originZ, system);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached regions
+     */
+    void clear() {
+        regions.clear();
+    }
+
+    private Region<T> getRegion(int regionX, int regionY, int regionZ) {
+        Long key = regionKey(regionX, regionY, regionZ);
+        Region<T> region = regions.get(key);
+        if (region == null) {
+            region = createRegion(regionX, regionY, regionZ);
+            regions.put(key, region);
+        }
+        return region;
+    }
+
+    private Region<T> createRegion(int regionX, int regionY, int regionZ) {
+        int minCubeX = regionX << REGION_BITS, maxCubeX = minCubeX + REGION_SIZE - 1;
+        int minCubeY = regionY << REGION_BITS, maxCubeY = minCubeY + REGION_SIZE - 1;
+        int minCubeZ = regionZ << REGION_BITS, maxCubeZ = minCubeZ + REGION_SIZE - 1;
+
+        int regionMinBlockX = minCubeX * ICube.SIZE, regionMaxBlockX = (maxCubeX + 1) * ICube.SIZE;
+        int regionMinBlockY = minCubeY * ICube.SIZE, regionMaxBlockY = (maxCubeY + 1) * ICube.SIZE;
+        int regionMinBlockZ = minCubeZ * ICube.SIZE, regionMaxBlockZ = (maxCubeZ + 1) * ICube.SIZE;
+
+        List<CubePos> origins = new ArrayList<>();
+        List<T> systems = new ArrayList<>();
+        // union of origin ranges of all cubes in the region, same alignment as in CubicStructureGenerator
+        for (int originX = (minCubeX | 1) - radius; originX <= (maxCubeX | 1) + radius; originX += 2) {
+            for (int originY = (minCubeY | 1) - radius; originY <= (maxCubeY | 1) + radius; originY += 2) {
+                for (int originZ = (minCubeZ | 1) - radius; originZ <= (maxCubeZ | 1) + radius; originZ += 2) {
+                    if (!hasStructure.test(originX, originY, originZ)) {
+                        continue;
+                    }
+                    CubePos origin = new CubePos(originX, originY, originZ);
+                    T system = systemSource.apply(origin);
+                    if (system.intersects(regionMinBlockX, regionMinBlockY, regionMinBlockZ,
+                            regionMaxBlockX, regionMaxBlockY, regionMaxBlockZ)) {
+                        origins.add(origin);
+                        systems.add(system);
+                    }
+                }
+            }
+        }
+        return new Region<>(origins, systems);
+    }
+
+    private static long regionKey(int x, int y, int z) {
+        return (x & 0x1FFFFFL) | (y & 0x1FFFFFL) << 21 | (z & 0x1FFFFFL) << 42;
+    }
+
+    @FunctionalInterface
+    interface SystemConsumer<T extends CarveSteps> {
+
+        void accept(int originX, int originY, int originZ, T system);
+    }
+
+    private static final class Region<T extends CarveSteps> {
+
+        final int size;
+        final int[] originX, originY, originZ;
+        final List<T> systems;
+
+        Region(List<CubePos> origins, List<T> systems) {
+            this.size = origins.size();
+            this.originX = new int[size];
+            this.originY = new int[size];
+            this.originZ = new int[size];
+            for (int i = 0; i < size; i++) {
+                CubePos pos = origins.get(i);
+                this.originX[i] = pos.getX();
+                this.originY[i] = pos.getY();
+                this.originZ[i] = pos.getZ();
+            }
+            this.systems = systems;
+        }
+    }
+}
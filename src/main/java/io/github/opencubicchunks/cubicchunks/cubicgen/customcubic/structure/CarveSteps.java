@@ -0,0 +1,217 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure;
+
+import static net.minecraft.util.math.MathHelper.floor;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Carve steps of a single carved structure system (a cave system or a ravine), in the order the random walk of the
+ * system visits them.
+ * <p>
+ * The random walk only depends on the structure seed, so it can be done once for each system and then replayed for every
+ * cube the system intersects. The walk gives up on a branch once the currently generated cube can't be reached anymore,
+ * to replay that exactly each step stores the index to continue at when it's too far from the cube.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class CarveSteps {
+
+    static final CarveSteps EMPTY = new CarveSteps(0);
+
+    /** Whether the "can the cube be reached" check includes the Y distance, ravines only check horizontal distance */
+    private final boolean checkReachY;
+
+    private int size;
+
+    private double[] x, y, z;
+    private double[] sizeHoriz, sizeVert;
+    /** Maximum distance the walk can still go after this step */
+    private double[] maxStepsDist;
+    /** Maximum distance from cube center at which the rest of the branch can still affect the cube */
+    private double[] maxDistToCube;
+    /** Index of the first step after the branch this step belongs to, including all sub-branches */
+    private int[] branchEnd;
+
+    // block coordinates of the box that contains all blocks any of the steps can modify
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+    CarveSteps(int initialCapacity) {
+        this(initialCapacity, true);
+    }
+
+    CarveSteps(int initialCapacity, boolean checkReachY) {
+        this.checkReachY = checkReachY;
+        this.x = new double[initialCapacity];
+        this.y = new double[initialCapacity];
+        this.z = new double[initialCapacity];
+        this.sizeHoriz = new double[initialCapacity];
+        this.sizeVert = new double[initialCapacity];
+        this.maxStepsDist = new double[initialCapacity];
+        this.maxDistToCube = new double[initialCapacity];
+        this.branchEnd = new int[initialCapacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    double getX(int i) {
+        return x[i];
+    }
+
+    double getY(int i) {
+        return y[i];
+    }
+
+    double getZ(int i) {
+        return z[i];
+    }
+
+    double getSizeHoriz(int i) {
+        return sizeHoriz[i];
+    }
+
+    double getSizeVert(int i) {
+        return sizeVert[i];
+    }
+
+    /**
+     * Adds a step, the branch end is set later using {@link #endBranch(int, int)}
+     */
+    void add(double x, double y, double z, double sizeHoriz, double sizeVert, double maxStepsDist, double maxDistToCube) {
+        if (size == this.x.length) {
+            grow();
+        }
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        this.sizeHoriz[size] = sizeHoriz;
+        this.sizeVert[size] = sizeVert;
+        this.maxStepsDist[size] = maxStepsDist;
+        this.maxDistToCube[size] = maxDistToCube;
+        this.size++;
+
+        // the same box the carver uses, before clamping to the cube
+        minX = Math.min(minX, floor(x - sizeHoriz) - 1);
+        minY = Math.min(minY, floor(y - sizeVert) - 1);
+        minZ = Math.min(minZ, floor(z - sizeHoriz) - 1);
+        maxX = Math.max(maxX, floor(x + sizeHoriz) + 1);
+        maxY = Math.max(maxY, floor(y + sizeVert) + 1);
+        maxZ = Math.max(maxZ, floor(z + sizeHoriz) + 1);
+    }
+
+    /**
+     * Marks steps from firstStep (inclusive) to lastStep (exclusive) as belonging to a branch that ends at current size
+     */
+    void endBranch(int firstStep, int lastStep) {
+        Arrays.fill(branchEnd, firstStep, lastStep, size);
+    }
+
+    /**
+     * Returns true if any of the steps may modify blocks of the given cube
+     */
+    boolean intersects(CubePos pos) {
+        return intersects(pos.getMinBlockX(), pos.getMinBlockY(), pos.getMinBlockZ(),
+                pos.getMinBlockX() + ICube.SIZE, pos.getMinBlockY() + ICube.SIZE, pos.getMinBlockZ() + ICube.SIZE);
+    }
+
+    /**
+     * Returns true if any of the steps may modify blocks in the given box, min block coordinates are inclusive, max are exclusive
+     */
+    boolean intersects(int boxMinX, int boxMinY, int boxMinZ, int boxMaxX, int boxMaxY, int boxMaxZ) {
+        // max coordinates are exclusive
+        return size != 0 &&
+                maxX > boxMinX && minX < boxMaxX &&
+                maxY > boxMinY && minY < boxMaxY &&
+                maxZ > boxMinZ && minZ < boxMaxZ;
+    }
+
+    /**
+     * Returns the index of the next step to carve for cube with the given center, starting from step i.
+     * Skips the remaining steps of every branch that went too far from the cube to ever reach it.
+     *
+     * @return index of the next step, or {@link #size()} if there are no more steps to carve
+     */
+    int nextReachable(int i, double cubeCenterX, double cubeCenterY, double cubeCenterZ) {
+        while (i < size) {
+            double xDist = x[i] - cubeCenterX;
+            double yDist = checkReachY ? y[i] - cubeCenterY : 0;
+            double zDist = z[i] - cubeCenterZ;
+            double maxStepsDist = this.maxStepsDist[i];
+            double maxDistToCube = this.maxDistToCube[i];
+            if (xDist * xDist + yDist * yDist + zDist * zDist - maxStepsDist * maxStepsDist > maxDistToCube * maxDistToCube) {
+                i = branchEnd[i];
+                continue;
+            }
+            return i;
+        }
+        return size;
+    }
+
+    /**
+     * Cache hash for system origins. Origins are 2 cubes apart, this maps every 16x16x16 area of origins to distinct
+     * entries of a {@link io.github.opencubicchunks.cubicchunks.cubicgen.cache.HashCache} with 4096 entries.
+     */
+    static int hashOrigin(CubePos origin) {
+        return ((origin.getX() >> 1) & 15) | ((origin.getY() >> 1) & 15) << 4 | ((origin.getZ() >> 1) & 15) << 8;
+    }
+
+    /**
+     * Shrinks the internal arrays to the actual size, called once the walk is done to not waste memory in caches
+     */
+    void trim() {
+        if (size == x.length) {
+            return;
+        }
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        z = Arrays.copyOf(z, size);
+        sizeHoriz = Arrays.copyOf(sizeHoriz, size);
+        sizeVert = Arrays.copyOf(sizeVert, size);
+        maxStepsDist = Arrays.copyOf(maxStepsDist, size);
+        maxDistToCube = Arrays.copyOf(maxDistToCube, size);
+        branchEnd = Arrays.copyOf(branchEnd, size);
+    }
+
+    private void grow() {
+        int newSize = Math.max(16, x.length * 2);
+        x = Arrays.copyOf(x, newSize);
+        y = Arrays.copyOf(y, newSize);
+        z = Arrays.copyOf(z, newSize);
+        sizeHoriz = Arrays.copyOf(sizeHoriz, newSize);
+        sizeVert = Arrays.copyOf(sizeVert, newSize);
+        maxStepsDist = Arrays.copyOf(maxStepsDist, newSize);
+        maxDistToCube = Arrays.copyOf(maxDistToCube, newSize);
+        branchEnd = Arrays.copyOf(branchEnd, newSize);
+    }
+}
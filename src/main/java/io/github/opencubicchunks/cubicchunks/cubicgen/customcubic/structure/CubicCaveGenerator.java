@@ -27,6 +27,7 @@ import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlo
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
 import static io.github.opencubicchunks.cubicchunks.cubicgen.StructureGenUtil.normalizedDistance;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static net.minecraft.util.math.MathHelper.cos;
 import static net.minecraft.util.math.MathHelper.floor;
 import static net.minecraft.util.math.MathHelper.sin;
@@ -35,14 +36,13 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.cubicgen.StructureGenUtil;
+import io.github.opencubicchunks.cubicchunks.cubicgen.cache.HashCache;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.block.state.IBlockState;
+import net.minecraft.block.Block;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.World;
-import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 import java.util.Random;
-import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -147,71 +147,135 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
     private static final double CAVE_FLOOR_DEPTH = -0.7;
 
     /**
-     * Controls which blocks can be replaced by cave
+     * Size of the cave system cache, enough to hold all origins within range of a few cubes in each direction
+     */
+    private static final int CAVE_SYSTEM_CACHE_SIZE = 16 * 16 * 16;
+
+    /**
+     * Maximum amount of 4x4x4 cube regions to keep cave system index for
+     */
+    private static final int CAVE_REGION_CACHE_SIZE = 64;
+
+    /**
+     * Normalized distances from the center of the current carve step along each axis, indexed by local coordinate.
+     * Y has one more entry because dirt-grass replacement looks at the block above.
+     */
+    private final double[] distXSq = new double[ICube.SIZE];
+    private final double[] distY = new double[ICube.SIZE + 1];
+    private final double[] distZSq = new double[ICube.SIZE];
+
+    /**
+     * Cave systems by origin position, so that the random walk of a system is done once and not for each cube it touches
+     */
+    private final HashCache<CubePos, CarveSteps> caveSystems =
+            HashCache.create(CAVE_SYSTEM_CACHE_SIZE, CarveSteps::hashOrigin, this::createCaveSystem);
+
+    /**
+     * Cave systems by the regions of cubes they intersect
      */
-    private static final Predicate<IBlockState> isBlockReplaceable = (state ->
-            state.getBlock() == Blocks.STONE || state.getBlock() == Blocks.DIRT || state.getBlock() == Blocks.GRASS);
+    private final CarveRegionIndex<CarveSteps> caveRegions =
+            new CarveRegionIndex<>(this.range, CAVE_REGION_CACHE_SIZE, this::hasStructureAt, this.caveSystems::get);
 
     public CubicCaveGenerator() {
         super(2);
     }
 
 
+    @Override
+    public void generate(World world, CubePrimer cube, CubePos cubePos) {
+        this.world = world;
+        // same as scanning all origins in range, but only visits cave systems that intersect this cube
+        this.caveRegions.forEachSystem(cubePos, (originX, originY, originZ, caveSystem) ->
+                carveCaveSystem(cube, cubePos, caveSystem));
+    }
+
     @Override
     protected void generate(World world, CubePrimer cube,
             int cubeXOrigin, int cubeYOrigin, int cubeZOrigin, CubePos generatedCubePos) {
-        if (this.rand.nextInt(CAVE_RARITY) != 0) {
-            return;
+        CarveSteps caveSystem = this.caveSystems.get(new CubePos(cubeXOrigin, cubeYOrigin, cubeZOrigin));
+        if (caveSystem.intersects(generatedCubePos)) {
+            carveCaveSystem(cube, generatedCubePos, caveSystem);
+        }
+    }
+
+    private void carveCaveSystem(CubePrimer cube, CubePos generatedCubePos, CarveSteps caveSystem) {
+        double cubeCenterX = generatedCubePos.getXCenter();
+        double cubeCenterY = generatedCubePos.getYCenter();
+        double cubeCenterZ = generatedCubePos.getZCenter();
+        int size = caveSystem.size();
+        for (int i = caveSystem.nextReachable(0, cubeCenterX, cubeCenterY, cubeCenterZ); i < size;
+             i = caveSystem.nextReachable(i + 1, cubeCenterX, cubeCenterY, cubeCenterZ)) {
+            tryCarveBlocks(cube, generatedCubePos,
+                    caveSystem.getX(i), caveSystem.getY(i), caveSystem.getZ(i),
+                    caveSystem.getSizeHoriz(i), caveSystem.getSizeVert(i));
+        }
+    }
+
+    @Override
+    protected boolean isStructureStart(Random rand, int structureX, int structureY, int structureZ) {
+        return rand.nextInt(CAVE_RARITY) == 0;
+    }
+
+    /**
+     * Does the random walk of the cave system starting at the given origin, independently of any cube.
+     */
+    private CarveSteps createCaveSystem(CubePos origin) {
+        Random rand = new Random(getStructureSeed(this.world.getSeed(), origin.getX(), origin.getY(), origin.getZ()));
+        if (!isStructureStart(rand, origin.getX(), origin.getY(), origin.getZ())) {
+            return CarveSteps.EMPTY;
         }
+        CarveSteps steps = new CarveSteps(64);
         //very low probability of generating high number
-        int nodes = this.rand.nextInt(this.rand.nextInt(this.rand.nextInt(MAX_INIT_NODES + 1) + 1) + 1);
+        int nodes = rand.nextInt(rand.nextInt(rand.nextInt(MAX_INIT_NODES + 1) + 1) + 1);
 
         for (int node = 0; node < nodes; ++node) {
-            double branchStartX = localToBlock(cubeXOrigin, this.rand.nextInt(ICube.SIZE));
-            double branchStartY = localToBlock(cubeYOrigin, this.rand.nextInt(ICube.SIZE));
-            double branchStartZ = localToBlock(cubeZOrigin, this.rand.nextInt(ICube.SIZE));
+            double branchStartX = localToBlock(origin.getX(), rand.nextInt(ICube.SIZE));
+            double branchStartY = localToBlock(origin.getY(), rand.nextInt(ICube.SIZE));
+            double branchStartZ = localToBlock(origin.getZ(), rand.nextInt(ICube.SIZE));
             int subBranches = 1;
 
-            if (this.rand.nextInt(LARGE_NODE_RARITY) == 0) {
-                this.generateLargeNode(cube, this.rand.nextLong(), generatedCubePos,
+            if (rand.nextInt(LARGE_NODE_RARITY) == 0) {
+                this.generateLargeNode(steps, rand, rand.nextLong(),
                         branchStartX, branchStartY, branchStartZ);
-                subBranches += this.rand.nextInt(LARGE_NODE_MAX_BRANCHES);
+                subBranches += rand.nextInt(LARGE_NODE_MAX_BRANCHES);
             }
 
             for (int branch = 0; branch < subBranches; ++branch) {
-                float horizDirAngle = this.rand.nextFloat() * (float) Math.PI * 2.0F;
-                float vertDirAngle = (this.rand.nextFloat() - 0.5F) * 2.0F / 8.0F;
-                float baseHorizSize = this.rand.nextFloat() * 2.0F + this.rand.nextFloat();
+                float horizDirAngle = rand.nextFloat() * (float) Math.PI * 2.0F;
+                float vertDirAngle = (rand.nextFloat() - 0.5F) * 2.0F / 8.0F;
+                float baseHorizSize = rand.nextFloat() * 2.0F + rand.nextFloat();
 
-                if (this.rand.nextInt(BIG_CAVE_RARITY) == 0) {
-                    baseHorizSize *= this.rand.nextFloat() * this.rand.nextFloat() * 3.0F + 1.0F;
+                if (rand.nextInt(BIG_CAVE_RARITY) == 0) {
+                    baseHorizSize *= rand.nextFloat() * rand.nextFloat() * 3.0F + 1.0F;
                 }
 
                 int startWalkedDistance = 0;
                 int maxWalkedDistance = 0;
                 double vertCaveSizeMod = 1.0;
 
-                this.generateNode(cube, this.rand.nextLong(), generatedCubePos,
+                this.generateNode(steps, rand.nextLong(),
                         branchStartX, branchStartY, branchStartZ,
                         baseHorizSize, horizDirAngle, vertDirAngle,
                         startWalkedDistance, maxWalkedDistance, vertCaveSizeMod);
             }
         }
+        steps.trim();
+        return steps;
     }
 
     /**
      * Generates a flattened cave "room", usually more caves split off it
      */
-    private void generateLargeNode(CubePrimer cube, long seed, CubePos generatedCubePos,
+    private void generateLargeNode(CarveSteps steps, Random rand, long seed,
             double x, double y, double z) {
-        float baseHorizSize = 1.0F + this.rand.nextFloat() * 6.0F;
+        float baseHorizSize = 1.0F + rand.nextFloat() * 6.0F;
         float horizDirAngle = 0;
         float vertDirAngle = 0;
 
         int startWalkedDistance = -1;
         int maxWalkedDistance = -1;
         double vertCaveSizeMod = 0.5;
-        this.generateNode(cube, seed, generatedCubePos, x, y, z,
+        this.generateNode(steps, seed, x, y, z,
                 baseHorizSize, horizDirAngle, vertDirAngle,
                 startWalkedDistance, maxWalkedDistance, vertCaveSizeMod);
     }
@@ -219,9 +283,8 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
     /**
      * Recursively generates a node in the current cave system tree.
      *
-     * @param cube block buffer to modify
+     * @param steps carve steps of the cave system, the steps of this node are added to it
      * @param seed random seed to use
-     * @param generatedCubePos position of the cube to modify
      * @param caveX starting x coordinate of the cave
      * @param caveY starting Y coordinate of the cave
      * @param caveZ starting Z coordinate of the cave
@@ -234,12 +297,12 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
      * @param vertDirAngle changes vertical size of the cave, values < 1 result in flattened caves, > 1 result in
      * vertically stretched caves
      */
-    private void generateNode(CubePrimer cube, long seed,
-            CubePos generatedCubePos,
+    private void generateNode(CarveSteps steps, long seed,
             double caveX, double caveY, double caveZ,
             float baseCaveSize, float horizDirAngle, float vertDirAngle,
             int startWalkedDistance, int maxWalkedDistance, double vertCaveSizeMod) {
         Random rand = new Random(seed);
+        int firstStep = steps.size();
 
         //store by how much the horizontal and vertical direction angles will change each step
         float horizDirChange = 0.0F;
@@ -304,17 +367,20 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
             //if we reached split point - try to split
             //can split only if it's not final branch and the cave is still big enough (>1 block radius)
             if (!finalStep && walkedDistance == splitPoint && baseCaveSize > 1.0F) {
-                this.generateNode(cube, rand.nextLong(),
-                        generatedCubePos, caveX, caveY, caveZ,
+                int lastStep = steps.size();
+                this.generateNode(steps, rand.nextLong(),
+                        caveX, caveY, caveZ,
                         rand.nextFloat() * 0.5F + 0.5F,//base cave size
                         horizDirAngle - ((float) Math.PI / 2F),//horiz. angle - subtract 90 degrees
                         vertDirAngle / 3.0F, walkedDistance, maxWalkedDistance,
                         1.0D);
-                this.generateNode(cube, rand.nextLong(), generatedCubePos, caveX, caveY, caveZ,
+                this.generateNode(steps, rand.nextLong(), caveX, caveY, caveZ,
                         rand.nextFloat() * 0.5F + 0.5F,//base cave size
                         horizDirAngle + ((float) Math.PI / 2F),//horiz. angle - add 90 degrees
                         vertDirAngle / 3.0F, walkedDistance, maxWalkedDistance,
                         1.0D);
+                // when a cube is out of reach, the sub-branches are skipped too
+                steps.endBranch(firstStep, lastStep);
                 return;
             }
 
@@ -323,27 +389,17 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
                 continue;
             }
 
-            double xDist = caveX - generatedCubePos.getXCenter();
-            double yDist = caveY - generatedCubePos.getYCenter();
-            double zDist = caveZ - generatedCubePos.getZCenter();
             double maxStepsDist = maxWalkedDistance - walkedDistance;
             //CHANGE: multiply max(1, vertCaveSizeMod)
             double maxDistToCube = baseCaveSize * max(1, vertCaveSizeMod) + CAVE_SIZE_ADD + ICube.SIZE;
 
-            //can this cube be reached at all?
-            //if even after going max distance allowed by remaining steps, it's still too far - stop
-            //TODO: does it make any performance difference?
-            if (xDist * xDist + yDist * yDist + zDist * zDist - maxStepsDist * maxStepsDist > maxDistToCube * maxDistToCube) {
-                return;
-            }
-
-            tryCarveBlocks(cube, generatedCubePos,
-                    caveX, caveY, caveZ,
-                    caveSizeHoriz, caveSizeVert);
+            //the cube-dependent "can this cube be reached at all?" check is done when carving, see CarveSteps
+            steps.add(caveX, caveY, caveZ, caveSizeHoriz, caveSizeVert, maxStepsDist, maxDistToCube);
             if (finalStep) {
-                return;
+                break;
             }
         }
+        steps.endBranch(firstStep, steps.size());
     }
 
     //returns true if cave generation should be continued
@@ -377,15 +433,20 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
                 maxLocalZ <= 0 || minLocalZ >= ICube.SIZE) {
             return;
         }
-        StructureBoundingBox boundingBox = new StructureBoundingBox(minLocalX, minLocalY, minLocalZ, maxLocalX, maxLocalY, maxLocalZ);
-
-        StructureGenUtil.clampBoundingBoxToLocalCube(boundingBox);
+        //clamp to the local cube, same as StructureGenUtil.clampBoundingBoxToLocalCube without allocating the box
+        minLocalX = max(minLocalX, 0);
+        minLocalY = max(minLocalY, 0);
+        minLocalZ = max(minLocalZ, 0);
+        maxLocalX = min(maxLocalX, ICube.SIZE);
+        maxLocalY = min(maxLocalY, ICube.SIZE);
+        maxLocalZ = min(maxLocalZ, ICube.SIZE);
 
-        boolean hitLiquid = StructureGenUtil.scanWallsForBlock(cube, boundingBox,
-                (b) -> b.getBlock() == Blocks.LAVA || b.getBlock() == Blocks.FLOWING_LAVA);
+        boolean hitLiquid = StructureGenUtil.scanWallsForLava(cube,
+                minLocalX, minLocalY, minLocalZ, maxLocalX, maxLocalY, maxLocalZ);
 
         if (!hitLiquid) {
-            carveBlocks(cube, generatedCubePos, caveX, caveY, caveZ, caveSizeHoriz, caveSizeVert, boundingBox);
+            carveBlocks(cube, generatedCubePos, caveX, caveY, caveZ, caveSizeHoriz, caveSizeVert,
+                    minLocalX, minLocalY, minLocalZ, maxLocalX, maxLocalY, maxLocalZ);
         }
     }
 
@@ -393,48 +454,52 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
             CubePos generatedCubePos,
             double caveX, double caveY, double caveZ,
             double caveSizeHoriz, double caveSizeVert,
-            StructureBoundingBox boundingBox) {
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
 
         int generatedCubeX = generatedCubePos.getX();
         int generatedCubeY = generatedCubePos.getY();
         int generatedCubeZ = generatedCubePos.getZ();
 
-        int minX = boundingBox.minX;
-        int maxX = boundingBox.maxX;
-        int minY = boundingBox.minY;
-        int maxY = boundingBox.maxY;
-        int minZ = boundingBox.minZ;
-        int maxZ = boundingBox.maxZ;
-
+        //distances only depend on one coordinate each, compute them once per axis instead of once per block
+        final double[] distXSq = this.distXSq;
+        final double[] distY = this.distY;
+        final double[] distZSq = this.distZSq;
         for (int localX = minX; localX < maxX; ++localX) {
             double distX = normalizedDistance(generatedCubeX, localX, caveX, caveSizeHoriz);
+            distXSq[localX] = distX * distX;
+        }
+        for (int localZ = minZ; localZ < maxZ; ++localZ) {
+            double distZ = normalizedDistance(generatedCubeZ, localZ, caveZ, caveSizeHoriz);
+            distZSq[localZ] = distZ * distZ;
+        }
+        // maxY is exclusive, but the block above the last carved one is needed for dirt-grass replacement
+        for (int localY = minY; localY <= maxY; ++localY) {
+            distY[localY] = normalizedDistance(generatedCubeY, localY, caveY, caveSizeVert);
+        }
+
+        for (int localX = minX; localX < maxX; ++localX) {
+            double distXSquared = distXSq[localX];
 
             for (int localZ = minZ; localZ < maxZ; ++localZ) {
-                double distZ = normalizedDistance(generatedCubeZ, localZ, caveZ, caveSizeHoriz);
+                double distZSquared = distZSq[localZ];
 
-                if (distX * distX + distZ * distZ >= 1.0D) {
+                if (distXSquared + distZSquared >= 1.0D) {
                     continue;
                 }
                 for (int localY = minY; localY < maxY; ++localY) {
-                    double distY = normalizedDistance(generatedCubeY, localY, caveY, caveSizeVert);
-
-                    IBlockState state = cube.getBlockState(localX, localY, localZ);
-
-                    if (!isBlockReplaceable.test(state)) {
-                        continue;
-                    }
-
-                    if (shouldCarveBlock(distX, distY, distZ)) {
-                        // No lava generation, infinite depth. Lava will be generated differently (or not generated)
-                        cube.setBlockState(localX, localY, localZ, Blocks.AIR.getDefaultState());
-                    } else if (state.getBlock() == Blocks.DIRT) {
+                    // only read the block if this step can change it
+                    if (shouldCarveBlock(distXSquared, distY[localY], distZSquared)) {
+                        if (isBlockReplaceable(cube.getBlockState(localX, localY, localZ).getBlock())) {
+                            // No lava generation, infinite depth. Lava will be generated differently (or not generated)
+                            cube.setBlockState(localX, localY, localZ, Blocks.AIR.getDefaultState());
+                        }
+                    } else if (shouldCarveBlock(distXSquared, distY[localY + 1], distZSquared)) {
                         //vanilla dirt-grass replacement works by scanning top-down and moving the block
                         //cubic chunks needs to be a bit more hacky about it
                         //instead of keeping track of the encountered grass block
                         //cubic chunks replaces any dirt block (it's before population, no ore-like dirt formations yet)
                         //with grass, if the block above would be deleted by this cave generator step
-                        double distYAbove = normalizedDistance(generatedCubeY, localY + 1, caveY, caveSizeVert);
-                        if (shouldCarveBlock(distX, distYAbove, distZ)) {
+                        if (cube.getBlockState(localX, localY, localZ).getBlock() == Blocks.DIRT) {
                             cube.setBlockState(localX, localY, localZ, Blocks.GRASS.getDefaultState());
                         }
                     }
@@ -443,8 +508,15 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
         }
     }
 
-    private static boolean shouldCarveBlock(double distX, double distY, double distZ) {
+    /**
+     * Controls which blocks can be replaced by cave
+     */
+    private static boolean isBlockReplaceable(Block block) {
+        return block == Blocks.STONE || block == Blocks.DIRT || block == Blocks.GRASS;
+    }
+
+    private static boolean shouldCarveBlock(double distXSquared, double distY, double distZSquared) {
         //distY > CAVE_FLOOR_DEPTH --> flattened floor
-        return distY > CAVE_FLOOR_DEPTH && distX * distX + distY * distY + distZ * distZ < 1.0D;
+        return distY > CAVE_FLOOR_DEPTH && distXSquared + distY * distY + distZSquared < 1.0D;
     }
 }
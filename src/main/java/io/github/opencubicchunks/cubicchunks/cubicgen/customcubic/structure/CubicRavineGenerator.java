@@ -25,6 +25,9 @@ package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure;
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToMinBlock;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.localToBlock;
+import static io.github.opencubicchunks.cubicchunks.cubicgen.StructureGenUtil.normalizedDistance;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static net.minecraft.util.math.MathHelper.cos;
 import static net.minecraft.util.math.MathHelper.floor;
 import static net.minecraft.util.math.MathHelper.sin;
@@ -34,17 +37,15 @@ import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.cubicgen.StructureGenUtil;
+import io.github.opencubicchunks.cubicchunks.cubicgen.cache.HashCache;
 import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.block.state.IBlockState;
+import net.minecraft.block.Block;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.World;
-import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 import java.util.Random;
-import java.util.function.Predicate;
 
-import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -124,34 +125,91 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
     private static final double STRETCH_Y_FACTOR = 6.0;
 
     /**
-     * Controls which blocks can be replaced by cave
+     * Size of the ravine cache, enough to hold all origins within range of a few cubes in each direction
      */
-    @Nonnull private static final Predicate<IBlockState> isBlockReplaceable = (state ->
-            state.getBlock() == Blocks.STONE || state.getBlock() == Blocks.DIRT || state.getBlock() == Blocks.GRASS);
+    private static final int RAVINE_SYSTEM_CACHE_SIZE = 16 * 16 * 16;
+
+    /**
+     * Maximum amount of 4x4x4 cube regions to keep ravine index for
+     */
+    private static final int RAVINE_REGION_CACHE_SIZE = 64;
 
     private final int maxCubeY;
 
     /**
-     * Contains values of ravine widths at each height.
-     * <p>
-     * For cubic chunks the height value used wraps around.
+     * Normalized horizontal distances from the center of the current carve step, indexed by local coordinate
+     */
+    private final double[] distXSq = new double[ICube.SIZE];
+    private final double[] distZSq = new double[ICube.SIZE];
+    /**
+     * Stretched vertical distance term and ravine width factor of the current carve step, indexed by local Y
+     */
+    private final double[] distYSqStretched = new double[ICube.SIZE];
+    private final double[] widthFactors = new double[ICube.SIZE];
+
+    /**
+     * Ravines by origin position, so that the random walk of a ravine is done once and not for each cube it touches
+     */
+    private final HashCache<CubePos, RavineSteps> ravines =
+            HashCache.create(RAVINE_SYSTEM_CACHE_SIZE, CarveSteps::hashOrigin, this::createRavine);
+
+    /**
+     * Ravines by the regions of cubes they intersect
      */
-    @Nonnull private float[] widthDecreaseFactors = new float[1024];
+    private final CarveRegionIndex<RavineSteps> ravineRegions =
+            new CarveRegionIndex<>(this.range, RAVINE_REGION_CACHE_SIZE, this::hasStructureAt, this.ravines::get);
 
     public CubicRavineGenerator(CustomGeneratorSettings cfg) {
         super(2);
         this.maxCubeY = Coords.blockToCube(cfg.expectedBaseHeight);
     }
 
+    @Override
+    public void generate(World world, CubePrimer cube, CubePos cubePos) {
+        this.world = world;
+        // same as scanning all origins in range, but only visits ravines that intersect this cube
+        this.ravineRegions.forEachSystem(cubePos, (originX, originY, originZ, ravine) ->
+                carveRavine(cube, cubePos, ravine));
+    }
+
+    @Override
+    protected boolean isStructureStart(Random rand, int structureX, int structureY, int structureZ) {
+        return rand.nextInt(RAVINE_RARITY) == 0 && structureY <= maxCubeY;
+    }
+
     @Override
     protected void generate(World world, CubePrimer cube, int structureX, int structureY, int structureZ,
             CubePos generatedCubePos) {
-        if (rand.nextInt(RAVINE_RARITY) != 0 || structureY > maxCubeY) {
-            return;
+        RavineSteps ravine = this.ravines.get(new CubePos(structureX, structureY, structureZ));
+        if (ravine.intersects(generatedCubePos)) {
+            carveRavine(cube, generatedCubePos, ravine);
         }
-        double startX = localToBlock(structureX, rand.nextInt(ICube.SIZE));
-        double startY = localToBlock(structureY, rand.nextInt(ICube.SIZE));
-        double startZ = localToBlock(structureZ, rand.nextInt(ICube.SIZE));
+    }
+
+    private void carveRavine(CubePrimer cube, CubePos generatedCubePos, RavineSteps ravine) {
+        double cubeCenterX = generatedCubePos.getXCenter();
+        double cubeCenterY = generatedCubePos.getYCenter();
+        double cubeCenterZ = generatedCubePos.getZCenter();
+        int size = ravine.size();
+        for (int i = ravine.nextReachable(0, cubeCenterX, cubeCenterY, cubeCenterZ); i < size;
+             i = ravine.nextReachable(i + 1, cubeCenterX, cubeCenterY, cubeCenterZ)) {
+            tryCarveBlocks(cube, generatedCubePos, ravine,
+                    ravine.getX(i), ravine.getY(i), ravine.getZ(i),
+                    ravine.getSizeHoriz(i), ravine.getSizeVert(i));
+        }
+    }
+
+    /**
+     * Does the random walk of the ravine starting at the given origin, independently of any cube.
+     */
+    private RavineSteps createRavine(CubePos origin) {
+        Random rand = new Random(getStructureSeed(this.world.getSeed(), origin.getX(), origin.getY(), origin.getZ()));
+        if (!isStructureStart(rand, origin.getX(), origin.getY(), origin.getZ())) {
+            return RavineSteps.EMPTY;
+        }
+        double startX = localToBlock(origin.getX(), rand.nextInt(ICube.SIZE));
+        double startY = localToBlock(origin.getY(), rand.nextInt(ICube.SIZE));
+        double startZ = localToBlock(origin.getZ(), rand.nextInt(ICube.SIZE));
 
         float vertDirectionAngle = rand.nextFloat() * (float) Math.PI * 2.0F;
         float horizDirectionAngle = (rand.nextFloat() - 0.5F) * 2.0F / 8.0F;
@@ -164,12 +222,14 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
                 (baseRavineSize + RAVINE_SIZE_ADD) * VERT_SIZE_FACTOR +
                 LAVA_HEIGHT_OFFSET + startY * LAVA_HEIGHT_Y_FACTOR);
 
-        this.generateNode(cube, rand.nextLong(), generatedCubePos, startX, startY, startZ,
+        RavineSteps steps = this.generateNode(rand.nextLong(), startX, startY, startZ,
                 baseRavineSize, vertDirectionAngle, horizDirectionAngle,
                 startWalkedDistance, maxWalkedDistance, VERT_SIZE_FACTOR, lavaHeight);
+        steps.trim();
+        return steps;
     }
 
-    private void generateNode(CubePrimer cube, long seed, CubePos generatedCubePos,
+    private RavineSteps generateNode(long seed,
             double ravineX, double ravineY, double ravineZ,
             float baseRavineSize, float horizDirAngle, float vertDirAngle,
             int startWalkedDistance, int maxWalkedDistance, double vertRavineSizeMod,
@@ -198,7 +258,7 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
             walkedDistance = startWalkedDistance;
         }
 
-        this.widthDecreaseFactors = generateRavineWidthFactors(rand);
+        RavineSteps steps = new RavineSteps(maxWalkedDistance - walkedDistance, generateRavineWidthFactors(rand), lavaHeight);
 
         for (; walkedDistance < maxWalkedDistance; ++walkedDistance) {
             float fractionWalked = walkedDistance / (float) maxWalkedDistance;
@@ -237,33 +297,25 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
                 continue;
             }
 
-            double xDist = ravineX - generatedCubePos.getXCenter();
-            double zDist = ravineZ - generatedCubePos.getZCenter();
             double maxStepsDist = maxWalkedDistance - walkedDistance;
-
             double maxDistToCube = baseRavineSize + RAVINE_SIZE_ADD + ICube.SIZE;
-            //can this cube be reached at all?
-            //if even after going max distance allowed by remaining steps, it's still too far - stop
-            //NOTE: don't check yDist, this is optimization and with Y scale stretched as much as with ravines
-            //the check would be useless
-            //TODO: does it make any performance difference?
-            if (xDist * xDist + zDist * zDist - maxStepsDist * maxStepsDist > maxDistToCube * maxDistToCube) {
-                return;
-            }
 
-            tryCarveBlocks(cube, generatedCubePos,
-                    ravineX, ravineY, ravineZ,
-                    ravineSizeHoriz, ravineSizeVert, lavaHeight);
+            //the cube-dependent "can this cube be reached at all?" check is done when carving, see CarveSteps
+            //NOTE: it doesn't check yDist, this is optimization and with Y scale stretched as much as with ravines
+            //the check would be useless
+            steps.add(ravineX, ravineY, ravineZ, ravineSizeHoriz, ravineSizeVert, maxStepsDist, maxDistToCube);
 
             if (finalStep) {
-                return;
+                break;
             }
         }
+        steps.endBranch(0, steps.size());
+        return steps;
     }
 
-    private void tryCarveBlocks(CubePrimer cube, CubePos generatedCubePos,
+    private void tryCarveBlocks(CubePrimer cube, CubePos generatedCubePos, RavineSteps ravine,
             double ravineX, double ravineY, double ravineZ,
-            double ravineSizeHoriz, double ravineSizeVert, int lavaHeight) {
+            double ravineSizeHoriz, double ravineSizeVert) {
         double genCubeCenterX = generatedCubePos.getXCenter();
         double genCubeCenterY = generatedCubePos.getYCenter();
         double genCubeCenterZ = generatedCubePos.getZCenter();
@@ -288,57 +340,71 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
                 maxLocalZ <= 0 || minLocalZ >= ICube.SIZE) {
             return;
         }
-        StructureBoundingBox boundingBox = new StructureBoundingBox(minLocalX, minLocalY, minLocalZ, maxLocalX, maxLocalY, maxLocalZ);
+        //clamp to the local cube, same as StructureGenUtil.clampBoundingBoxToLocalCube without allocating the box
+        minLocalX = max(minLocalX, 0);
+        minLocalY = max(minLocalY, 0);
+        minLocalZ = max(minLocalZ, 0);
+        maxLocalX = min(maxLocalX, ICube.SIZE);
+        maxLocalY = min(maxLocalY, ICube.SIZE);
+        maxLocalZ = min(maxLocalZ, ICube.SIZE);
 
-        StructureGenUtil.clampBoundingBoxToLocalCube(boundingBox);
-
-        boolean hitLiquid = StructureGenUtil.scanWallsForBlock(cube, boundingBox,
-                (b) -> b.getBlock() == Blocks.WATER || b.getBlock() == Blocks.FLOWING_WATER);
+        boolean hitLiquid = StructureGenUtil.scanWallsForWater(cube,
+                minLocalX, minLocalY, minLocalZ, maxLocalX, maxLocalY, maxLocalZ);
 
         if (!hitLiquid) {
-            carveBlocks(cube, generatedCubePos, ravineX, ravineY, ravineZ,
-                    ravineSizeHoriz, ravineSizeVert, boundingBox, lavaHeight);
+            carveBlocks(cube, generatedCubePos, ravine, ravineX, ravineY, ravineZ, ravineSizeHoriz, ravineSizeVert,
+                    minLocalX, minLocalY, minLocalZ, maxLocalX, maxLocalY, maxLocalZ);
         }
     }
 
-    private void carveBlocks(CubePrimer cube, CubePos generatedCubePos,
+    private void carveBlocks(CubePrimer cube, CubePos generatedCubePos, RavineSteps ravine,
             double ravineX, double ravineY, double ravineZ,
-            double ravineSizeHoriz, double ravineSizeVert, StructureBoundingBox boundingBox,
-            int lavaHeight) {
+            double ravineSizeHoriz, double ravineSizeVert,
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
         int generatedCubeX = generatedCubePos.getX();
         int generatedCubeY = generatedCubePos.getY();
         int generatedCubeZ = generatedCubePos.getZ();
+        int lavaHeight = ravine.getLavaHeight();
 
-        int minX = boundingBox.minX;
-        int maxX = boundingBox.maxX;
-        int minY = boundingBox.minY;
-        int maxY = boundingBox.maxY;
-        int minZ = boundingBox.minZ;
-        int maxZ = boundingBox.maxZ;
+        //distances only depend on one coordinate each, compute them once per axis instead of once per block
+        final double[] distXSq = this.distXSq;
+        final double[] distZSq = this.distZSq;
+        final double[] distYSqStretched = this.distYSqStretched;
+        final double[] widthFactors = this.widthFactors;
+        for (int localX = minX; localX < maxX; ++localX) {
+            double distX = normalizedDistance(generatedCubeX, localX, ravineX, ravineSizeHoriz);
+            distXSq[localX] = distX * distX;
+        }
+        for (int localZ = minZ; localZ < maxZ; ++localZ) {
+            double distZ = normalizedDistance(generatedCubeZ, localZ, ravineZ, ravineSizeHoriz);
+            distZSq[localZ] = distZ * distZ;
+        }
+        for (int localY = minY; localY < maxY; ++localY) {
+            double distY = normalizedDistance(generatedCubeY, localY, ravineY, ravineSizeVert);
+            //distY*distY/STRETCH_Y_FACTOR is a hack
+            //it should make the ravine way more stretched in the Y dimension, but because of previous checks
+            //most of these blocks beyond the not-stretched height range are never carved out
+            //the result is that instead the ravine isn't very small at the bottom,
+            //but ends with actual floor instead
+            distYSqStretched[localY] = distY * distY / STRETCH_Y_FACTOR;
+            widthFactors[localY] = ravine.getWidthFactor(localToBlock(generatedCubeY, localY));
+        }
 
         for (int localX = minX; localX < maxX; ++localX) {
-            double distX = StructureGenUtil.normalizedDistance(generatedCubeX, localX, ravineX, ravineSizeHoriz);
+            double distXSquared = distXSq[localX];
 
             for (int localZ = minZ; localZ < maxZ; ++localZ) {
-                double distZ = StructureGenUtil.normalizedDistance(generatedCubeZ, localZ, ravineZ, ravineSizeHoriz);
+                double distHorizSquared = distXSquared + distZSq[localZ];
 
-                if (distX * distX + distZ * distZ >= 1.0D) {
+                if (distHorizSquared >= 1.0D) {
                     continue;
                 }
                 for (int localY = minY; localY < maxY; ++localY) {
-                    double distY = StructureGenUtil.normalizedDistance(generatedCubeY, localY, ravineY, ravineSizeVert);
-
-                    //distY*distY/STRETCH_Y_FACTOR is a hack
-                    //it should make the ravine way more stretched in the Y dimension, but because of previous checks
-                    //most of these blocks beyond the not-stretched height range are never carved out
-                    //the result is that instead the ravine isn't very small at the bottom,
-                    //but ends with actual floor instead
-                    double widthDecreaseFactor = this.widthDecreaseFactors[(localY + generatedCubeY * ICube.SIZE) & 0xFF];
-                    if ((distX * distX + distZ * distZ) * widthDecreaseFactor + distY * distY / STRETCH_Y_FACTOR >= 1.0D) {
+                    if (distHorizSquared * widthFactors[localY] + distYSqStretched[localY] >= 1.0D) {
                         continue;
                     }
 
-                    if (!isBlockReplaceable.test(cube.getBlockState(localX, localY, localZ))) {
+                    if (!isBlockReplaceable(cube.getBlockState(localX, localY, localZ).getBlock())) {
                         continue;
                     }
                     if (localToBlock(generatedCubeY, localY) < lavaHeight) {
@@ -351,8 +417,18 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
         }
     }
 
+    /**
+     * Controls which blocks can be replaced by ravine
+     */
+    private static boolean isBlockReplaceable(Block block) {
+        return block == Blocks.STONE || block == Blocks.DIRT || block == Blocks.GRASS;
+    }
+
+    /**
+     * Generates squared ravine widths for each height. For cubic chunks the height value used wraps around every 256 blocks.
+     */
     private float[] generateRavineWidthFactors(Random rand) {
-        float[] values = new float[1024];
+        float[] values = new float[ICube.SIZE * ICube.SIZE];
         float value = 1.0F;
 
         for (int i = 0; i < ICube.SIZE*ICube.SIZE; ++i) {
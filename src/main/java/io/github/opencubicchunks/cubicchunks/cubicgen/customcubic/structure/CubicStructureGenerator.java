@@ -31,6 +31,7 @@ import net.minecraft.world.World;
 import java.util.Random;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
@@ -55,6 +56,18 @@ public abstract class CubicStructureGenerator {
     /** The minimum spacing of structures. */
     protected final int spacing;
 
+    // used to randomize contribution of each coordinate to the structure seed, see getStructureSeed
+    // immutable and replaced as a whole, so that structure seeds can be computed from multiple threads
+    @Nullable private volatile SeedMultipliers seedMultipliers;
+
+    /** RNG used only to evaluate {@link #isStructureStart(Random, int, int, int)} for {@link #structureStarts} */
+    private final Random startTestRand = new Random();
+    /** Memoized results of {@link #isStructureStart(Random, int, int, int)} */
+    private final StructureStartBits structureStarts = new StructureStartBits(256, (x, y, z) -> {
+        startTestRand.setSeed(seedMultipliers.getStructureSeed(x, y, z));
+        return isStructureStart(startTestRand, x, y, z);
+    });
+
     /**
      * @param spacing The minimum spacing. Structures thataren't generated at integer multiple coords of this value will be skipped.
      */
@@ -74,13 +87,11 @@ public abstract class CubicStructureGenerator {
         //TODO: maybe skip some of this stuff if the cube is empty? (would need to use hints)
 
         this.world = world;
-        this.rand.setSeed(world.getSeed());
-        //used to randomize contribution of each coordinate to the cube seed
-        //without these swapping x/y/z coordinates would result in the same seed
-        //so structures would generate symmetrically
-        long randXMul = this.rand.nextLong();
-        long randYMul = this.rand.nextLong();
-        long randZMul = this.rand.nextLong();
+        long randSeed = world.getSeed();
+        SeedMultipliers seedMultipliers = getSeedMultipliers(randSeed);
+        long randXMul = seedMultipliers.randXMul;
+        long randYMul = seedMultipliers.randYMul;
+        long randZMul = seedMultipliers.randZMul;
 
         // as an optimization, this structure looks for structures only in every second coordinate on each axis
         // ensure all origin points are always odd (could also be even, that would be & ~1),
@@ -91,8 +102,6 @@ public abstract class CubicStructureGenerator {
         int cubeYOriginBase = cubePos.getY() | 1;
         int cubeZOriginBase = cubePos.getZ() | 1;
 
-        long randSeed = world.getSeed();
-
         int spacing = this.spacing;
         //x/y/zOrigin is location of the structure "center", and cubeX/Y/Z is the currently generated cube
         for (int xOrigin = cubeXOriginBase - radius; xOrigin <= cubeXOriginBase + radius; xOrigin += spacing) {
@@ -100,8 +109,13 @@ public abstract class CubicStructureGenerator {
             for (int yOrigin = cubeYOriginBase - radius; yOrigin <= cubeYOriginBase + radius; yOrigin += spacing) {
                 long randY = yOrigin * randYMul ^ randX;
                 for (int zOrigin = cubeZOriginBase - radius; zOrigin <= cubeZOriginBase + radius; zOrigin += spacing) {
+                    if (!structureStarts.hasStructureAt(xOrigin, yOrigin, zOrigin)) {
+                        continue;
+                    }
                     long randZ = zOrigin * randZMul ^ randY;
                     this.rand.setSeed(randZ);
+                    // repeat the draws of the start test so that generate sees the same RNG state
+                    this.isStructureStart(this.rand, xOrigin, yOrigin, zOrigin);
                     this.generate(world, cube, xOrigin, yOrigin, zOrigin, cubePos);
                 }
             }
@@ -109,6 +123,55 @@ public abstract class CubicStructureGenerator {
         }
     }
 
+    /**
+     * Returns whether a structure starts at the given origin, memoized result of
+     * {@link #isStructureStart(Random, int, int, int)}. Must be called after the world is set.
+     */
+    protected boolean hasStructureAt(int structureX, int structureY, int structureZ) {
+        getSeedMultipliers(world.getSeed());
+        return structureStarts.hasStructureAt(structureX, structureY, structureZ);
+    }
+
+    /**
+     * Returns the seed {@link #rand} is set to before generating the structure with the given origin.
+     *
+     * @param worldSeed seed of the world
+     * @param structureX x coordinate of the starting position of the structure
+     * @param structureY y coordinate of the starting position of the structure
+     * @param structureZ z coordinate of the starting position of the structure
+     * @return the structure seed
+     */
+    protected long getStructureSeed(long worldSeed, int structureX, int structureY, int structureZ) {
+        return getSeedMultipliers(worldSeed).getStructureSeed(structureX, structureY, structureZ);
+    }
+
+    private SeedMultipliers getSeedMultipliers(long worldSeed) {
+        SeedMultipliers seedMultipliers = this.seedMultipliers;
+        if (seedMultipliers != null && seedMultipliers.worldSeed == worldSeed) {
+            return seedMultipliers;
+        }
+        seedMultipliers = new SeedMultipliers(worldSeed);
+        this.seedMultipliers = seedMultipliers;
+        this.structureStarts.clear();
+        return seedMultipliers;
+    }
+
+    /**
+     * Cheap test done before {@link #generate(World, CubePrimer, int, int, int, CubePos)}, to quickly reject origins
+     * where no structure starts. The result is memoized, so it must only depend on the origin and on values drawn from
+     * the given RNG, which is set to the structure seed. Random values drawn here are not seen by generate, it gets the RNG
+     * in the state after this test.
+     *
+     * @param rand the RNG seeded with the structure seed
+     * @param structureX x coordinate of the starting position of the structure
+     * @param structureY y coordinate of the starting position of the structure
+     * @param structureZ z coordinate of the starting position of the structure
+     * @return false if there is definitely no structure starting at this origin
+     */
+    protected boolean isStructureStart(Random rand, int structureX, int structureY, int structureZ) {
+        return true;
+    }
+
     /**
      * Generates blocks in a given cube for a structure that starts at given origin position.
      *
@@ -122,4 +185,25 @@ public abstract class CubicStructureGenerator {
     protected abstract void generate(World world, CubePrimer cube,
             int structureX, int structureY, int structureZ,
             CubePos generatedCubePos);
+
+    private static final class SeedMultipliers {
+
+        final long worldSeed;
+        final long randXMul, randYMul, randZMul;
+
+        SeedMultipliers(long worldSeed) {
+            //used to randomize contribution of each coordinate to the cube seed
+            //without these swapping x/y/z coordinates would result in the same seed
+            //so structures would generate symmetrically
+            Random rand = new Random(worldSeed);
+            this.worldSeed = worldSeed;
+            this.randXMul = rand.nextLong();
+            this.randYMul = rand.nextLong();
+            this.randZMul = rand.nextLong();
+        }
+
+        long getStructureSeed(int structureX, int structureY, int structureZ) {
+            return structureX * randXMul ^ worldSeed ^ structureY * randYMul ^ structureZ * randZMul;
+        }
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Carve steps of a single ravine, together with the per-ravine data needed to carve it.
+ * <p>
+ * Ravines don't check Y distance when testing whether a cube can still be reached.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class RavineSteps extends CarveSteps {
+
+    static final RavineSteps EMPTY = new RavineSteps(0, new float[0], 0);
+
+    /** Squared width factor for each block Y, indexed by (blockY & 0xFF) */
+    private final float[] widthFactors;
+    /** Blocks below this Y are replaced with lava instead of air */
+    private final int lavaHeight;
+
+    RavineSteps(int initialCapacity, float[] widthFactors, int lavaHeight) {
+        super(initialCapacity, false);
+        this.widthFactors = widthFactors;
+        this.lavaHeight = lavaHeight;
+    }
+
+    float getWidthFactor(int blockY) {
+        return widthFactors[blockY & 0xFF];
+    }
+
+    int getLavaHeight() {
+        return lavaHeight;
+    }
+}
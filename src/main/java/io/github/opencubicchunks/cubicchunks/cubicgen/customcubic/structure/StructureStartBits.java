@@ -0,0 +1,115 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Memoizes which origins start a structure, as one bit per origin in regions of 16x16x16 origins.
+ * <p>
+ * Origins are expected to be spaced by a multiple of 2 with fixed parity, as in {@link CubicStructureGenerator}. Only
+ * a bounded amount of regions is kept, least recently used regions are evicted first.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class StructureStartBits {
+
+    private static final int REGION_BITS = 4;
+    private static final int REGION_SIZE = 1 << REGION_BITS;
+    private static final int REGION_MASK = REGION_SIZE - 1;
+
+    private final OriginPredicate isStructureStart;
+    private final Map<Long, long[]> regions;
+
+    /**
+     * @param maxRegions maximum amount of regions to keep in memory, each takes 512 bytes
+     * @param isStructureStart the expensive test to memoize, must be a pure function of origin position
+     */
+    StructureStartBits(int maxRegions, OriginPredicate isStructureStart) {
+        this.isStructureStart = isStructureStart;
+        this.regions = new LinkedHashMap<Long, long[]>(maxRegions * 2, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return size() > maxRegions;
+            }
+        };
+    }
+
+    boolean hasStructureAt(int originX, int originY, int originZ) {
+        // origins have the same parity, so dividing by 2 gives consecutive indices
+        int x = originX >> 1;
+        int y = originY >> 1;
+        int z = originZ >> 1;
+        long[] bits = getRegion(x >> REGION_BITS, y >> REGION_BITS, z >> REGION_BITS, originX & 1, originY & 1, originZ & 1);
+        int index = (x & REGION_MASK) << (REGION_BITS * 2) | (y & REGION_MASK) << REGION_BITS | (z & REGION_MASK);
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Drops all memoized values, needs to be called when the result of the test may have changed
+     */
+    void clear() {
+        regions.clear();
+    }
+
+    private long[] getRegion(int regionX, int regionY, int regionZ, int parityX, int parityY, int parityZ) {
+        Long key = (regionX & 0xFFFFFL) | (regionY & 0xFFFFFL) << 20 | (regionZ & 0xFFFFFL) << 40
+                | (long) (parityX | parityY << 1 | parityZ << 2) << 60;
+        long[] bits = regions.get(key);
+        if (bits == null) {
+            bits = computeRegion(regionX, regionY, regionZ, parityX, parityY, parityZ);
+            regions.put(key, bits);
+        }
+        return bits;
+    }
+
+    private long[] computeRegion(int regionX, int regionY, int regionZ, int parityX, int parityY, int parityZ) {
+        long[] bits = new long[REGION_SIZE * REGION_SIZE * REGION_SIZE / Long.SIZE];
+        int index = 0;
+        for (int dx = 0; dx < REGION_SIZE; dx++) {
+            int originX = ((regionX << REGION_BITS | dx) << 1) | parityX;
+            for (int dy = 0; dy < REGION_SIZE; dy++) {
+                int originY = ((regionY << REGION_BITS | dy) << 1) | parityY;
+                for (int dz = 0; dz < REGION_SIZE; dz++) {
+                    int originZ = ((regionZ << REGION_BITS | dz) << 1) | parityZ;
+                    if (isStructureStart.test(originX, originY, originZ)) {
+                        bits[index >>> 6] |= 1L << index;
+                    }
+                    index++;
+                }
+            }
+        }
+        return bits;
+    }
+
+    @FunctionalInterface
+    interface OriginPredicate {
+
+        boolean test(int originX, int originY, int originZ);
+    }
+}
@@ -31,6 +31,8 @@ import javax.annotation.Nonnull;
 public class CubicFeatureData extends WorldSavedData {
 
     private NBTTagCompound tagCompound = new NBTTagCompound();
+    /** Only used by the migration marker, see {@link #formatMigrationMarkerName(String)} */
+    private boolean legacyMigrated;
 
     public CubicFeatureData(String name) {
         super(name);
@@ -40,12 +42,17 @@ public class CubicFeatureData extends WorldSavedData {
      * reads in data from the NBTTagCompound into this MapDataBase
      */
     @Override
-    public void readFromNBT(NBTTagCompound nbt) {
+    public synchronized void readFromNBT(NBTTagCompound nbt) {
         this.tagCompound = nbt.getCompoundTag("Features");
+        this.legacyMigrated = nbt.getBoolean("LegacyMigrated");
     }
 
-    @Override @Nonnull public NBTTagCompound writeToNBT(NBTTagCompound compound) {
-        compound.setTag("Features", this.tagCompound);
+    @Override @Nonnull public synchronized NBTTagCompound writeToNBT(NBTTagCompound compound) {
+        // copy, so that structures generated on other threads while saving don't modify the tag being written
+        compound.setTag("Features", this.tagCompound.copy());
+        if (this.legacyMigrated) {
+            compound.setBoolean("LegacyMigrated", true);
+        }
         return compound;
     }
 
@@ -53,15 +60,48 @@ public class CubicFeatureData extends WorldSavedData {
      * Writes the NBT tag of an instance of this structure type to the internal NBT tag, using the chunkcoordinates as
      * the key
      */
-    public void writeInstance(NBTTagCompound tagCompoundIn, int chunkX, int chunkY, int chunkZ) {
+    public synchronized void writeInstance(NBTTagCompound tagCompoundIn, int chunkX, int chunkY, int chunkZ) {
         this.tagCompound.setTag(formatChunkCoords(chunkX, chunkY, chunkZ), tagCompoundIn);
     }
 
+    /**
+     * Returns true if an instance of this structure type is stored at the given chunk coordinates
+     */
+    public synchronized boolean hasInstance(int chunkX, int chunkY, int chunkZ) {
+        return this.tagCompound.hasKey(formatChunkCoords(chunkX, chunkY, chunkZ));
+    }
+
+    public synchronized boolean isLegacyMigrated() {
+        return this.legacyMigrated;
+    }
+
+    public synchronized void setLegacyMigrated() {
+        this.legacyMigrated = true;
+    }
+
+    /**
+     * Returns the data name of the marker that records that the legacy single file data of the given structure type has
+     * been copied to regions
+     */
+    public static String formatMigrationMarkerName(String structureName) {
+        return structureName + "_migrated";
+    }
+
+    /**
+     * Returns the data name of the region of structures of the given type, also used as the file name
+     */
+    public static String formatRegionName(String structureName, int regionX, int regionY, int regionZ) {
+        return structureName + "_" + regionX + "_" + regionY + "_" + regionZ;
+    }
+
     public static String formatChunkCoords(int chunkX, int chunkY, int chunkZ) {
         return "[" + chunkX + "," + chunkY + "," + chunkZ + "]";
     }
 
-    public NBTTagCompound getTagCompound() {
-        return this.tagCompound;
+    /**
+     * Returns a copy of the stored structure instances
+     */
+    public synchronized NBTTagCompound getTagCompound() {
+        return this.tagCompound.copy();
     }
 }
@@ -23,11 +23,11 @@
  */
 package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.feature;
 
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToCenterBlock;
 
 import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
-import io.github.opencubicchunks.cubicchunks.api.util.XYZMap;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.CubicStructureGenerator;
 import mcp.MethodsReturnNonnullByDefault;
@@ -42,9 +42,15 @@ import net.minecraft.world.gen.structure.MapGenStructureIO;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 import net.minecraft.world.gen.structure.StructureComponent;
 import net.minecraft.world.gen.structure.StructureStart;
+import net.minecraft.world.storage.MapStorage;
 import net.minecraftforge.common.util.Constants;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -53,14 +59,40 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
 
-    private CubicFeatureData structureData;
+    /**
+     * Structure data is stored in regions of 32x32x32 cubes, keyed by the position of the structure start
+     */
+    private static final int REGION_BITS = 5;
+
+    /**
+     * Maximum amount of regions remembered as loaded. Loading a region again after it was forgotten only re-reads its
+     * data, starts that are already known are kept.
+     */
+    private static final int MAX_LOADED_REGIONS = 1024;
+
+    /** Set once structure data storage is ready, see {@link #initializeStructureData(World)} */
+    private volatile boolean structureDataInitialized;
+    /** The world structure data is stored in, set before {@link #structureDataInitialized} */
+    @Nullable private World storageWorld;
+
+    /** Recently used regions whose structure starts have already been added to {@link #structureMap} */
+    private final Map<Long, Boolean> loadedRegions = new LinkedHashMap<Long, Boolean>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > MAX_LOADED_REGIONS;
+        }
+    };
 
     /**
      * Used to store a list of all structures that have been recursively generated. Used so that during recursive
      * generation, the structure generator can avoid generating structures that intersect ones that have already been
      * placed.
      */
-    protected XYZMap<ICubicStructureStart> structureMap = new XYZMap<>(0.5f, 1024);
+    protected final Map<CubePos, ICubicStructureStart> structureMap = new ConcurrentHashMap<>();
+
+    /**
+     * The starts of {@link #structureMap} indexed by their bounding boxes, use {@link #addStructureStart} to add to both
+     */
+    private final StructureStartIndex structureIndex = new StructureStartIndex();
 
     /**
      * @param spacing The minimum spacing. Structures thataren't generated at integer multiple coords of this value will be skipped.
@@ -71,23 +103,48 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
 
     public abstract String getStructureName();
 
-    @SuppressWarnings("ConstantConditions")
+    /**
+     * Creates structure starts at all origins in range of the given cube. Can be called from multiple threads at once,
+     * the world is passed along instead of being stored in {@link #world}.
+     */
     @Override public void generate(World world, @Nullable CubePrimer cube, CubePos cubePos) {
-        super.generate(world, cube, cubePos);
+        this.initializeStructureData(world);
+
+        // same origins as CubicStructureGenerator, but without the shared RNG and start cache, which aren't thread safe
+        int radius = this.range + 1;
+        int cubeXOriginBase = cubePos.getX() | 1;
+        int cubeYOriginBase = cubePos.getY() | 1;
+        int cubeZOriginBase = cubePos.getZ() | 1;
+
+        this.loadRegions(cubeXOriginBase - radius, cubeYOriginBase - radius, cubeZOriginBase - radius,
+                cubeXOriginBase + radius, cubeYOriginBase + radius, cubeZOriginBase + radius);
+
+        int spacing = this.spacing;
+        for (int xOrigin = cubeXOriginBase - radius; xOrigin <= cubeXOriginBase + radius; xOrigin += spacing) {
+            for (int yOrigin = cubeYOriginBase - radius; yOrigin <= cubeYOriginBase + radius; yOrigin += spacing) {
+                for (int zOrigin = cubeZOriginBase - radius; zOrigin <= cubeZOriginBase + radius; zOrigin += spacing) {
+                    this.generate(world, cube, xOrigin, yOrigin, zOrigin, cubePos);
+                }
+            }
+        }
     }
 
+    /**
+     * Creates the structure start at the given origin, if there is one and it doesn't exist yet. If multiple threads
+     * race on the same origin, they all create the same start from the origin seed, and only one of them is kept.
+     */
     @Override
-    protected synchronized void generate(World world, @Nullable CubePrimer cube, int structureX, int structureY, int structureZ,
+    protected void generate(World world, @Nullable CubePrimer cube, int structureX, int structureY, int structureZ,
             CubePos generatedCubePos) {
-        this.initializeStructureData((World) world);
-
-        if (!this.structureMap.contains(structureX, structureY, structureZ)) {
-            this.rand.nextInt();
+        CubePos origin = new CubePos(structureX, structureY, structureZ);
+        if (!this.structureMap.containsKey(origin)) {
             try {
                 if (this.canSpawnStructureAtCoords(structureX, structureY, structureZ)) {
-                    StructureStart start = this.getStructureStart(structureX, structureY, structureZ);
-                    this.structureMap.put((ICubicStructureStart) start);
-                    if (start.isSizeableStructure()) {
+                    // most origins don't have a structure, only seed an RNG for the ones that do
+                    Random rand = new Random(this.getStructureSeed(world.getSeed(), structureX, structureY, structureZ));
+                    rand.nextInt();
+                    StructureStart start = this.getStructureStart(world, rand, structureX, structureY, structureZ);
+                    if (this.addStructureStart((ICubicStructureStart) start) && start.isSizeableStructure()) {
                         this.setStructureStart(structureX, structureY, structureZ, start);
                     }
                 }
@@ -102,23 +159,35 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
         }
     }
 
-    public synchronized boolean generateStructure(World world, Random rand, CubePos cubePos) {
+    /**
+     * Generates blocks of structures that intersect the given cube. Can be called from multiple threads at once,
+     * population of the same structure start is serialized.
+     */
+    public boolean generateStructure(World world, Random rand, CubePos cubePos) {
         this.initializeStructureData(world);
+        this.loadRegionsInRange(cubePos.getX(), cubePos.getY(), cubePos.getZ());
         int centerX = cubeToCenterBlock(cubePos.getX());
         int centerY = cubeToCenterBlock(cubePos.getY());
         int centerZ = cubeToCenterBlock(cubePos.getZ());
         boolean generated = false;
-        for (ICubicStructureStart cubicStructureStart : this.structureMap) {
-            StructureStart structStart = (StructureStart) cubicStructureStart;
-            // TODO: cubic chunks version of isValidForPostProcess and notifyPostProcess (mixin)
-            if (structStart.isSizeableStructure() && structStart.isValidForPostProcess(cubePos.chunkPos())
-                    && structStart.getBoundingBox().intersectsWith(
-                    new StructureBoundingBox(centerX, centerY, centerZ, centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1))) {
-                structStart.generateStructure(world, rand,
-                        new StructureBoundingBox(centerX, centerY, centerZ, centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1));
-                structStart.notifyPostProcessAt(cubePos.chunkPos());
-                generated = true;
-                this.setStructureStart(structStart.getChunkPosX(), cubicStructureStart.getChunkPosY(), structStart.getChunkPosZ(), structStart);
+        List<StructureStart> starts = new ArrayList<>();
+        this.structureIndex.collectIntersecting(centerX, centerY, centerZ,
+                centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1, starts);
+        // only allocated when there is something to generate, and shared by all structures in this cube
+        StructureBoundingBox cubeBox = null;
+        for (StructureStart structStart : starts) {
+            ICubicStructureStart cubicStart = (ICubicStructureStart) structStart;
+            synchronized (structStart) {
+                if (structStart.isSizeableStructure() && cubicStart.isValidForPostProcess(cubePos)) {
+                    if (cubeBox == null) {
+                        cubeBox = new StructureBoundingBox(centerX, centerY, centerZ,
+                                centerX + ICube.SIZE - 1, centerY + ICube.SIZE - 1, centerZ + ICube.SIZE - 1);
+                    }
+                    structStart.generateStructure(world, rand, cubeBox);
+                    cubicStart.notifyPostProcessAt(cubePos);
+                    generated = true;
+                    this.setStructureStart(structStart.getChunkPosX(), cubicStart.getChunkPosY(), structStart.getChunkPosZ(), structStart);
+                }
             }
         }
 
@@ -126,15 +195,17 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
     }
 
     public boolean isInsideStructure(BlockPos pos) {
-        this.initializeStructureData((World) this.world);
+        if (!this.structureDataInitialized) {
+            // no world to load structures from yet
+            return false;
+        }
+        this.loadRegionsInRange(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
         return this.getStructureAt(pos) != null;
     }
 
     @Nullable
     protected StructureStart getStructureAt(BlockPos pos) {
-        for (ICubicStructureStart cubicStructureStart : this.structureMap) {
-            StructureStart start = (StructureStart) cubicStructureStart;
-
+        for (StructureStart start : this.structureIndex.getStartsAt(pos)) {
             if (start.isSizeableStructure() && start.getBoundingBox().isVecInside(pos)) {
                 for (StructureComponent component : start.getComponents()) {
                     if (component.getBoundingBox().isVecInside(pos)) {
@@ -148,8 +219,8 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
 
     public boolean isPositionInStructure(World world, BlockPos pos) {
         this.initializeStructureData(world);
-        for (ICubicStructureStart cubicStart : this.structureMap) {
-            StructureStart start = (StructureStart) cubicStart;
+        this.loadRegionsInRange(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
+        for (StructureStart start : this.structureIndex.getStartsAt(pos)) {
             if (start.isSizeableStructure() && start.getBoundingBox().isVecInside(pos)) {
                 return true;
             }
@@ -160,42 +231,195 @@ public abstract class CubicFeatureGenerator extends CubicStructureGenerator {
     @Nullable
     public abstract BlockPos getClosestStrongholdPos(World worldIn, BlockPos pos, boolean findUnexplored);
 
+    /**
+     * Prepares structure data storage for the given world. Structure starts themselves are loaded lazily, one region at
+     * a time, when a cube near them is generated or queried.
+     */
     protected void initializeStructureData(World world) {
-        if (this.structureData != null) {
+        if (this.structureDataInitialized) {
             return;
         }
-        this.structureData = (CubicFeatureData) world.getPerWorldStorage().getOrLoadData(CubicFeatureData.class, this.getStructureName());
+        synchronized (this) {
+            if (!this.structureDataInitialized) {
+                this.storageWorld = world;
+                this.migrateLegacyStructureData(world);
+                this.structureDataInitialized = true;
+            }
+        }
+    }
+
+    private void migrateLegacyStructureData(World world) {
+
+        // older versions stored all structures of a type in a single data file, copy them to regions once. The old file
+        // is left unchanged, so that nothing is lost if an older version is used again. The marker is saved together
+        // with the regions, and is dropped if an older version rewrites the file. In that case starts already in their
+        // region are skipped, they may have been updated since they were copied.
+        MapStorage storage = world.getPerWorldStorage();
+        String markerName = CubicFeatureData.formatMigrationMarkerName(this.getStructureName());
+        CubicFeatureData legacyData;
+        synchronized (storage) {
+            CubicFeatureData marker = (CubicFeatureData) storage.getOrLoadData(CubicFeatureData.class, markerName);
+            if (marker != null && marker.isLegacyMigrated()) {
+                return;
+            }
+            legacyData = (CubicFeatureData) storage.getOrLoadData(CubicFeatureData.class, this.getStructureName());
+        }
+        if (legacyData == null) {
+            return;
+        }
+        NBTTagCompound legacyTag = legacyData.getTagCompound();
+        for (String s : legacyTag.getKeySet()) {
+            NBTBase nbtbase = legacyTag.getTag(s);
+
+            if (nbtbase.getId() == Constants.NBT.TAG_COMPOUND) {
+                NBTTagCompound tag = (NBTTagCompound) nbtbase;
+
+                if (tag.hasKey("ChunkX") && tag.hasKey("ChunkY") && tag.hasKey("ChunkZ")) {
+                    int chunkX = tag.getInteger("ChunkX");
+                    int chunkY = tag.getInteger("ChunkY");
+                    int chunkZ = tag.getInteger("ChunkZ");
+                    CubicFeatureData data = this.getOrCreateRegionData(chunkX >> REGION_BITS, chunkY >> REGION_BITS, chunkZ >> REGION_BITS);
+                    if (!data.hasInstance(chunkX, chunkY, chunkZ)) {
+                        data.writeInstance(tag, chunkX, chunkY, chunkZ);
+                        data.markDirty();
+                    }
+                }
+            }
+        }
+
+        synchronized (storage) {
+            CubicFeatureData marker = new CubicFeatureData(markerName);
+            marker.setLegacyMigrated();
+            marker.markDirty();
+            storage.setData(markerName, marker);
+        }
+    }
+
+    /**
+     * Loads all regions that may contain starts of structures that reach the given cube
+     */
+    private void loadRegionsInRange(int cubeX, int cubeY, int cubeZ) {
+        int range = this.range;
+        this.loadRegions(cubeX - range, cubeY - range, cubeZ - range, cubeX + range, cubeY + range, cubeZ + range);
+    }
+
+    /**
+     * Loads all regions that contain structure origins in the given range of cubes, each region is looked up once
+     */
+    private void loadRegions(int minCubeX, int minCubeY, int minCubeZ, int maxCubeX, int maxCubeY, int maxCubeZ) {
+        for (int regionX = minCubeX >> REGION_BITS; regionX <= maxCubeX >> REGION_BITS; regionX++) {
+            for (int regionY = minCubeY >> REGION_BITS; regionY <= maxCubeY >> REGION_BITS; regionY++) {
+                for (int regionZ = minCubeZ >> REGION_BITS; regionZ <= maxCubeZ >> REGION_BITS; regionZ++) {
+                    loadRegion(regionX, regionY, regionZ);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds structure starts stored in the given region to {@link #structureMap}, if not done recently
+     */
+    private void loadRegion(int regionX, int regionY, int regionZ) {
+        synchronized (this.loadedRegions) {
+            if (this.loadedRegions.put(regionKey(regionX, regionY, regionZ), Boolean.TRUE) == null) {
+                this.readRegion(regionX, regionY, regionZ);
+            }
+        }
+    }
 
-        if (this.structureData == null) {
-            this.structureData = new CubicFeatureData(this.getStructureName());
-            world.getPerWorldStorage().setData(this.getStructureName(), this.structureData);
-        } else {
-            NBTTagCompound nbttagcompound = this.structureData.getTagCompound();
+    private void readRegion(int regionX, int regionY, int regionZ) {
+        CubicFeatureData data = this.loadRegionData(regionX, regionY, regionZ);
+        if (data == null) {
+            return;
+        }
+        NBTTagCompound nbttagcompound = data.getTagCompound();
 
-            for (String s : nbttagcompound.getKeySet()) {
-                NBTBase nbtbase = nbttagcompound.getTag(s);
+        for (String s : nbttagcompound.getKeySet()) {
+            NBTBase nbtbase = nbttagcompound.getTag(s);
 
-                if (nbtbase.getId() == Constants.NBT.TAG_COMPOUND) {
-                    NBTTagCompound tag = (NBTTagCompound) nbtbase;
+            if (nbtbase.getId() == Constants.NBT.TAG_COMPOUND) {
+                NBTTagCompound tag = (NBTTagCompound) nbtbase;
 
-                    if (tag.hasKey("ChunkX") && tag.hasKey("ChunkY") && tag.hasKey("ChunkZ")) {
-                        StructureStart structurestart = MapGenStructureIO.getStructureStart(tag, world);
+                if (tag.hasKey("ChunkX") && tag.hasKey("ChunkY") && tag.hasKey("ChunkZ")) {
+                    StructureStart structurestart = MapGenStructureIO.getStructureStart(tag, this.storageWorld);
 
-                        if (structurestart != null) {
-                            this.structureMap.put((ICubicStructureStart) structurestart);
-                        }
+                    if (structurestart != null) {
+                        this.addStructureStart((ICubicStructureStart) structurestart);
                     }
                 }
             }
         }
     }
 
+    /**
+     * Returns the structure data of the given region if it exists. World storage keeps the data of every region it
+     * loaded, regions without structures are never added to it.
+     */
+    @Nullable
+    private CubicFeatureData loadRegionData(int regionX, int regionY, int regionZ) {
+        String name = CubicFeatureData.formatRegionName(this.getStructureName(), regionX, regionY, regionZ);
+        MapStorage storage = this.storageWorld.getPerWorldStorage();
+        synchronized (storage) {
+            return (CubicFeatureData) storage.getOrLoadData(CubicFeatureData.class, name);
+        }
+    }
+
+    /**
+     * Returns the structure data of the given region, loading it from disk or creating it if needed. Each region is
+     * a separate data file, so saving only writes regions that changed.
+     */
+    private CubicFeatureData getOrCreateRegionData(int regionX, int regionY, int regionZ) {
+        String name = CubicFeatureData.formatRegionName(this.getStructureName(), regionX, regionY, regionZ);
+        MapStorage storage = this.storageWorld.getPerWorldStorage();
+        synchronized (storage) {
+            CubicFeatureData data = (CubicFeatureData) storage.getOrLoadData(CubicFeatureData.class, name);
+            if (data == null) {
+                data = new CubicFeatureData(name);
+                storage.setData(name, data);
+            }
+            return data;
+        }
+    }
+
+    private static long regionKey(int x, int y, int z) {
+        return (x & 0x1FFFFFL) | (y & 0x1FFFFFL) << 21 | (z & 0x1FFFFFL) << 42;
+    }
+
+    /**
+     * Adds the start to {@link #structureMap} and {@link #structureIndex}, unless there already is a start at its origin
+     *
+     * @return true if the start was added
+     */
+    private boolean addStructureStart(ICubicStructureStart start) {
+        if (this.structureMap.putIfAbsent(start.getCubePos(), start) != null) {
+            return false;
+        }
+        this.structureIndex.add(start);
+        return true;
+    }
+
     private void setStructureStart(int chunkX, int chunkY, int chunkZ, StructureStart start) {
-        this.structureData.writeInstance(start.writeStructureComponentsToNBT(chunkX, chunkZ), chunkX, chunkY, chunkZ);
-        this.structureData.markDirty();
+        CubicFeatureData data = this.getOrCreateRegionData(chunkX >> REGION_BITS, chunkY >> REGION_BITS, chunkZ >> REGION_BITS);
+        data.writeInstance(start.writeStructureComponentsToNBT(chunkX, chunkZ), chunkX, chunkY, chunkZ);
+        data.markDirty();
     }
 
     protected abstract boolean canSpawnStructureAtCoords(int chunkX, int chunkY, int chunkZ);
 
-    protected abstract StructureStart getStructureStart(int chunkX, int chunkY, int chunkZ);
+    /**
+     * Returns the world structure data is stored in, once the generator has been used with a world
+     */
+    @Nullable
+    protected World getStorageWorld() {
+        return this.structureDataInitialized ? this.storageWorld : null;
+    }
+
+    /**
+     * Creates the structure start at the given origin. May be called from multiple threads at once, all random values
+     * must come from the given RNG. Implementations must guard any static state of vanilla structure pieces they use.
+     *
+     * @param world the world the structure is generated in
+     * @param rand RNG seeded with the structure seed of the origin
+     */
+    protected abstract StructureStart getStructureStart(World world, Random rand, int chunkX, int chunkY, int chunkZ);
 }
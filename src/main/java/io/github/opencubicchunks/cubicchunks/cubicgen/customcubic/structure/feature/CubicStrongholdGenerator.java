@@ -25,13 +25,9 @@ package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.fea
 
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockCeilToCube;
 import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
-import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToCenterBlock;
-import static java.lang.Math.cos;
-import static java.lang.Math.round;
-import static java.lang.Math.sin;
 
 import com.google.common.collect.Lists;
-import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.cubicgen.CustomCubicMod;
 import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
@@ -43,26 +39,36 @@ import net.minecraft.world.gen.structure.StructureStrongholdPieces;
 import net.minecraftforge.common.BiomeManager;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
 public class CubicStrongholdGenerator extends CubicFeatureGenerator {
 
-    private CubePos[] structureCoords;
+    /**
+     * Maximum amount of attempts to generate a stronghold layout with a portal room at one position
+     */
+    private static final int MAX_LAYOUT_ATTEMPTS = 16;
+
+    private int count;
+    @Nullable private volatile StrongholdPositions positions;
     private double distance;
     private int spread;
     private List<Biome> allowedBiomes;
-    private boolean positionsGenerated;
     private final CustomGeneratorSettings conf;
 
+    /** Amount of layouts that had to be generated again because they had no portal room */
+    private final AtomicInteger layoutRetries = new AtomicInteger();
+    /** Amount of positions where no layout with a portal room was found within MAX_LAYOUT_ATTEMPTS */
+    private final AtomicInteger layoutFailures = new AtomicInteger();
+
     public CubicStrongholdGenerator(CustomGeneratorSettings conf) {
         super(4);
         this.conf = conf;
-        this.structureCoords = new CubePos[128];
+        this.count = Math.max(1, conf.strongholdCount);
         this.distance = 32.0D;
         this.spread = 3;
         this.allowedBiomes = Lists.<Biome>newArrayList();
@@ -87,7 +93,7 @@ public class CubicStrongholdGenerator extends CubicFeatureGenerator {
             if (entry.getKey().equals("distance")) {
                 this.distance = MathHelper.getDouble(entry.getValue(), this.distance, 1.0D);
             } else if (entry.getKey().equals("count")) {
-                this.structureCoords = new CubePos[MathHelper.getInt(entry.getValue(), this.structureCoords.length, 1)];
+                this.count = MathHelper.getInt(entry.getValue(), this.count, 1);
             } else if (entry.getKey().equals("spread")) {
                 this.spread = MathHelper.getInt(entry.getValue(), this.spread, 1);
             }
@@ -99,22 +105,8 @@ public class CubicStrongholdGenerator extends CubicFeatureGenerator {
     }
 
     @Nullable @Override public BlockPos getClosestStrongholdPos(World worldIn, BlockPos pos, boolean findUnexplored) {
-        checkPositionsGenerated();
-
-        BlockPos.MutableBlockPos currentBlock = new BlockPos.MutableBlockPos(0, 0, 0);
-
-        BlockPos closestPos = null;
-        double minDist = Double.MAX_VALUE;
-
-        for (CubePos cubePos : this.structureCoords) {
-            currentBlock.setPos(cubePos.getXCenter(), cubePos.getYCenter(), cubePos.getZCenter());
-            double currentDist = currentBlock.distanceSq(pos);
-
-            if (closestPos == null || currentDist < minDist) {
-                closestPos = new BlockPos(currentBlock);
-                minDist = currentDist;
-            }
-        }
+        this.initializeStructureData(worldIn);
+        BlockPos closestPos = getPositions().findClosest(pos);
 
         assert closestPos != null;
 
@@ -122,96 +114,75 @@ public class CubicStrongholdGenerator extends CubicFeatureGenerator {
     }
 
     @Override protected boolean canSpawnStructureAtCoords(int chunkX, int chunkY, int chunkZ) {
-        checkPositionsGenerated();
-
-        return Arrays.stream(this.structureCoords)
-                .anyMatch(cubePos -> chunkX == cubePos.getX() && chunkY == cubePos.getY() && chunkZ == cubePos.getZ());
-    }
-
-    @Override protected StructureStart getStructureStart(int chunkX, int chunkY, int chunkZ) {
-        StructureStart start;
-        do {
-            start = new MapGenStronghold.Start((World) this.world, this.rand, chunkX, chunkZ);
-            ((ICubicStructureStart) start).initCubic((World) world, conf, chunkY);
-        } while (start.getComponents().isEmpty() || ((StructureStrongholdPieces.Stairs2) start.getComponents().get(0)).strongholdPortalRoom == null);
-        return start;
-    }
-
-    private void checkPositionsGenerated() {
-        if (!this.positionsGenerated) {
-            this.generatePositions();
-            this.positionsGenerated = true;
-        }
+        return getPositions().contains(chunkX, chunkY, chunkZ);
     }
 
-    private void generatePositions() {
-        this.initializeStructureData((World) this.world);
-        {
-            int i = 0;
-            for (ICubicStructureStart start : this.structureMap) {
-                if (i >= this.structureCoords.length) {
-                    break;
+    /**
+     * Generates the stronghold layout, retrying a bounded amount of times until it has a portal room
+     */
+    @Override protected StructureStart getStructureStart(World world, Random rand, int chunkX, int chunkY, int chunkZ) {
+        StructureStart start = null;
+        // stronghold piece generation uses static state in StructureStrongholdPieces. Vanilla generators don't take
+        // this lock, they run on the server thread like cubic generation normally does
+        synchronized (StructureStrongholdPieces.class) {
+            for (int attempt = 0; attempt < MAX_LAYOUT_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    this.layoutRetries.incrementAndGet();
+                }
+                start = new MapGenStronghold.Start(world, rand, chunkX, chunkZ);
+                ((ICubicStructureStart) start).initCubic(world, conf, chunkY);
+                if (hasPortalRoom(start)) {
+                    return start;
                 }
-                this.structureCoords[i++] = start.getCubePos();
             }
         }
+        int failures = this.layoutFailures.incrementAndGet();
+        CustomCubicMod.LOGGER.warn("No stronghold layout with portal room found at cube ({}, {}, {}) after {} attempts"
+                        + " ({} such strongholds so far, {} retries in total)",
+                chunkX, chunkY, chunkZ, MAX_LAYOUT_ATTEMPTS, failures, this.layoutRetries.get());
+        return start;
+    }
 
-        int nextIndex = this.structureMap.getSize();
-        if (nextIndex >= this.structureCoords.length) {
-            return;
-        }
-
-        Random rand = new Random();
-        rand.setSeed(this.world.getSeed());
-
-        double angle = rand.nextDouble() * Math.PI * 2.0D;
-
-        int minCubeY = blockToCube(conf.expectedBaseHeight - conf.expectedHeightVariation);
-        int maxCubeY = blockCeilToCube(MathHelper.ceil(conf.expectedBaseHeight));
-
-        int distFactor = 0;
-        int ringStep = 0;
-        for (int i = 0; i < this.structureCoords.length; ++i) {
-            double distance = 4.0D * this.distance + this.distance * (double) distFactor * 6.0D + (rand.nextDouble() - 0.5D) * this.distance * 2.5D;
-            int chunkX;
-            int chunkY;
-            int chunkZ;
-            if (conf.alternateStrongholdsPositions) {
-                double yAngle = -rand.nextDouble() * Math.PI;
-                chunkX = (int) round(cos(angle) * cos(yAngle) * distance);
-                chunkY = (int) round(sin(yAngle) * distance) + maxCubeY; // TODO: use configuration-based offset
-                chunkZ = (int) round(sin(angle) * cos(yAngle) * distance);
-            } else {
-                chunkX = (int) round(cos(angle) * distance);
-                chunkY = MathHelper.getInt(rand, minCubeY, maxCubeY);
-                chunkZ = (int) round(sin(angle) * distance);
-            }
-            BlockPos blockPos = this.world.getBiomeProvider().findBiomePosition(
-                    cubeToCenterBlock(chunkX), cubeToCenterBlock(chunkZ), 112, this.allowedBiomes, rand);
-
-            if (blockPos != null) {
-                chunkX = blockToCube(blockPos.getX());
-                chunkZ = blockToCube(blockPos.getZ());
-            }
-
-            chunkX = Math.floorDiv(chunkX, this.spacing) * this.spacing;
-            chunkY = Math.floorDiv(chunkY, this.spacing) * this.spacing;
-            chunkZ = Math.floorDiv(chunkZ, this.spacing) * this.spacing;
+    /**
+     * Returns how many stronghold layouts were generated again because they had no portal room, since this generator
+     * was created
+     */
+    public int getLayoutRetries() {
+        return this.layoutRetries.get();
+    }
 
-            if (i >= nextIndex) {
-                this.structureCoords[i] = new CubePos(chunkX, chunkY, chunkZ);
-            }
+    /**
+     * Returns how many strongholds were generated without a portal room after {@value #MAX_LAYOUT_ATTEMPTS} attempts,
+     * since this generator was created
+     */
+    public int getLayoutFailures() {
+        return this.layoutFailures.get();
+    }
 
-            angle += (Math.PI * 2D) / (double) this.spread;
-            ++ringStep;
+    private static boolean hasPortalRoom(StructureStart start) {
+        return !start.getComponents().isEmpty()
+                && ((StructureStrongholdPieces.Stairs2) start.getComponents().get(0)).strongholdPortalRoom != null;
+    }
 
-            if (ringStep == this.spread) {
-                ++distFactor;
-                ringStep = 0;
-                this.spread += 2 * this.spread / (distFactor + 1);
-                this.spread = Math.min(this.spread, this.structureCoords.length - i);
-                angle += rand.nextDouble() * Math.PI * 2.0D;
+    private StrongholdPositions getPositions() {
+        StrongholdPositions positions = this.positions;
+        if (positions == null) {
+            synchronized (this) {
+                positions = this.positions;
+                if (positions == null) {
+                    int minCubeY = blockToCube(conf.expectedBaseHeight - conf.expectedHeightVariation);
+                    int maxCubeY = blockCeilToCube(MathHelper.ceil(conf.expectedBaseHeight));
+                    World world = getStorageWorld();
+                    if (world == null) {
+                        throw new IllegalStateException("Stronghold positions requested before the generator was used with a world");
+                    }
+                    positions = new StrongholdPositions(world, getStructureName(), this.allowedBiomes,
+                            this.count, this.distance, this.spread, conf.alternateStrongholdsPositions,
+                            minCubeY, maxCubeY, this.spacing);
+                    this.positions = positions;
+                }
             }
         }
+        return positions;
     }
 }
@@ -35,4 +35,16 @@ public interface ICubicStructureStart extends XYZAddressable {
     void initCubic(World world, CustomGeneratorSettings conf, int cubeY);
 
     CubePos getCubePos();
+
+    /**
+     * Cubic version of {@link net.minecraft.world.gen.structure.StructureStart#isValidForPostProcess}, returns false
+     * if this structure was already generated in the given cube
+     */
+    boolean isValidForPostProcess(CubePos pos);
+
+    /**
+     * Cubic version of {@link net.minecraft.world.gen.structure.StructureStart#notifyPostProcessAt}, marks this
+     * structure as generated in the given cube
+     */
+    void notifyPostProcessAt(CubePos pos);
 }
@@ -0,0 +1,162 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.feature;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.storage.WorldSavedData;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Saved stronghold positions, together with the settings they were computed with. Positions are computed lazily, so
+ * this can contain only the first positions, together with the state needed to compute the remaining ones.
+ */
+public class StrongholdPositionData extends WorldSavedData {
+
+    private long seed;
+    private double distance;
+    private int spread;
+    private boolean alternatePositions;
+    private int minCubeY, maxCubeY;
+    private int count;
+    private int[] positions = new int[0];
+
+    // state of the ring placement after the last saved position
+    private long randomDraws;
+    private double angle;
+    private int distFactor;
+    private int ringStep;
+    private int currentSpread;
+
+    public StrongholdPositionData(String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized void readFromNBT(NBTTagCompound nbt) {
+        this.seed = nbt.getLong("Seed");
+        this.distance = nbt.getDouble("Distance");
+        this.spread = nbt.getInteger("Spread");
+        this.alternatePositions = nbt.getBoolean("AlternatePositions");
+        this.minCubeY = nbt.getInteger("MinCubeY");
+        this.maxCubeY = nbt.getInteger("MaxCubeY");
+        this.positions = nbt.getIntArray("Positions");
+        this.count = nbt.hasKey("Count") ? nbt.getInteger("Count") : this.positions.length / 3;
+        this.randomDraws = nbt.getLong("RandomDraws");
+        this.angle = nbt.getDouble("Angle");
+        this.distFactor = nbt.getInteger("DistFactor");
+        this.ringStep = nbt.getInteger("RingStep");
+        this.currentSpread = nbt.getInteger("CurrentSpread");
+    }
+
+    @Override @Nonnull public synchronized NBTTagCompound writeToNBT(NBTTagCompound compound) {
+        compound.setLong("Seed", this.seed);
+        compound.setDouble("Distance", this.distance);
+        compound.setInteger("Spread", this.spread);
+        compound.setBoolean("AlternatePositions", this.alternatePositions);
+        compound.setInteger("MinCubeY", this.minCubeY);
+        compound.setInteger("MaxCubeY", this.maxCubeY);
+        compound.setIntArray("Positions", this.positions);
+        compound.setInteger("Count", this.count);
+        compound.setLong("RandomDraws", this.randomDraws);
+        compound.setDouble("Angle", this.angle);
+        compound.setInteger("DistFactor", this.distFactor);
+        compound.setInteger("RingStep", this.ringStep);
+        compound.setInteger("CurrentSpread", this.currentSpread);
+        return compound;
+    }
+
+    synchronized void setSettings(long seed, int count, double distance, int spread, boolean alternatePositions,
+            int minCubeY, int maxCubeY) {
+        this.seed = seed;
+        this.count = count;
+        this.distance = distance;
+        this.spread = spread;
+        this.alternatePositions = alternatePositions;
+        this.minCubeY = minCubeY;
+        this.maxCubeY = maxCubeY;
+    }
+
+    /**
+     * Sets the first {@code computedCount} positions, and the ring placement state after computing them
+     */
+    synchronized void setPositions(CubePos[] positions, int computedCount, long randomDraws, double angle, int distFactor,
+            int ringStep, int currentSpread) {
+        this.randomDraws = randomDraws;
+        this.angle = angle;
+        this.distFactor = distFactor;
+        this.ringStep = ringStep;
+        this.currentSpread = currentSpread;
+        this.positions = new int[computedCount * 3];
+        for (int i = 0; i < computedCount; i++) {
+            this.positions[i * 3] = positions[i].getX();
+            this.positions[i * 3 + 1] = positions[i].getY();
+            this.positions[i * 3 + 2] = positions[i].getZ();
+        }
+    }
+
+    /**
+     * Returns true if the saved positions were computed with the given settings
+     */
+    synchronized boolean matches(long seed, int count, double distance, int spread, boolean alternatePositions,
+            int minCubeY, int maxCubeY) {
+        return this.seed == seed && this.count == count && this.positions.length <= count * 3 && this.distance == distance
+                && this.spread == spread && this.alternatePositions == alternatePositions
+                && this.minCubeY == minCubeY && this.maxCubeY == maxCubeY;
+    }
+
+    synchronized int getComputedCount() {
+        return this.positions.length / 3;
+    }
+
+    /**
+     * Copies the saved positions to the beginning of the given array
+     */
+    synchronized void copyPositions(CubePos[] out) {
+        for (int i = 0; i < getComputedCount(); i++) {
+            out[i] = new CubePos(this.positions[i * 3], this.positions[i * 3 + 1], this.positions[i * 3 + 2]);
+        }
+    }
+
+    synchronized long getRandomDraws() {
+        return this.randomDraws;
+    }
+
+    synchronized double getAngle() {
+        return this.angle;
+    }
+
+    synchronized int getDistFactor() {
+        return this.distFactor;
+    }
+
+    synchronized int getRingStep() {
+        return this.ringStep;
+    }
+
+    synchronized int getCurrentSpread() {
+        return this.currentSpread;
+    }
+}
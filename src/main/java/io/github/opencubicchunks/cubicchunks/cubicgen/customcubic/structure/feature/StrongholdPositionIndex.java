@@ -0,0 +1,225 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.feature;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Immutable index of stronghold positions.
+ * <p>
+ * Membership tests are done in a primitive open addressing hash set of packed cube coordinates, and nearest stronghold
+ * queries use a k-d tree over the cube centers, so that neither depends linearly on the amount of strongholds.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class StrongholdPositionIndex {
+
+    private static final long EMPTY_KEY = -1;
+
+    private final long[] keys;
+    private final int mask;
+
+    // k-d tree in implicit form: the node at the middle of each range splits it, axis alternates x, y, z with depth
+    private final int[] treeX, treeY, treeZ;
+    // index of the position in the original array, to pick the same position as a linear scan when distances are equal
+    private final int[] treeOrder;
+
+    StrongholdPositionIndex(CubePos[] positions) {
+        int capacity = Integer.highestOneBit(Math.max(positions.length, 1) * 2) * 2;
+        this.keys = new long[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY_KEY);
+        for (CubePos pos : positions) {
+            add(pack(pos.getX(), pos.getY(), pos.getZ()));
+        }
+
+        int size = positions.length;
+        this.treeX = new int[size];
+        this.treeY = new int[size];
+        this.treeZ = new int[size];
+        this.treeOrder = new int[size];
+        for (int i = 0; i < size; i++) {
+            treeX[i] = positions[i].getXCenter();
+            treeY[i] = positions[i].getYCenter();
+            treeZ[i] = positions[i].getZCenter();
+            treeOrder[i] = i;
+        }
+        build(0, size, 0);
+    }
+
+    /**
+     * Returns true if there is a stronghold at the given cube position
+     */
+    boolean contains(int cubeX, int cubeY, int cubeZ) {
+        long key = pack(cubeX, cubeY, cubeZ);
+        for (int i = hash(key) & mask; keys[i] != EMPTY_KEY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the center of the stronghold cube closest to the given position, same as a linear scan over the positions
+     * comparing {@link BlockPos#distanceSq}, or null if there are no strongholds.
+     */
+    @Nullable
+    BlockPos findClosest(BlockPos pos) {
+        if (treeOrder.length == 0) {
+            return null;
+        }
+        Nearest nearest = new Nearest();
+        findClosest(0, treeOrder.length, 0, pos.getX(), pos.getY(), pos.getZ(), nearest);
+        int i = nearest.node;
+        return new BlockPos(treeX[i], treeY[i], treeZ[i]);
+    }
+
+    private void findClosest(int start, int end, int axis, int x, int y, int z, Nearest nearest) {
+        if (start >= end) {
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        double dx = treeX[mid] - x;
+        double dy = treeY[mid] - y;
+        double dz = treeZ[mid] - z;
+        double dist = dx * dx + dy * dy + dz * dz;
+        if (nearest.node < 0 || dist < nearest.distSq ||
+                (dist == nearest.distSq && treeOrder[mid] < treeOrder[nearest.node])) {
+            nearest.node = mid;
+            nearest.distSq = dist;
+        }
+
+        double planeDist = axis == 0 ? -dx : axis == 1 ? -dy : -dz;
+        int nextAxis = axis == 2 ? 0 : axis + 1;
+        // search the side the query point is on first, it's more likely to contain the nearest position
+        if (planeDist < 0) {
+            findClosest(start, mid, nextAxis, x, y, z, nearest);
+            if (planeDist * planeDist <= nearest.distSq) {
+                findClosest(mid + 1, end, nextAxis, x, y, z, nearest);
+            }
+        } else {
+            findClosest(mid + 1, end, nextAxis, x, y, z, nearest);
+            if (planeDist * planeDist <= nearest.distSq) {
+                findClosest(start, mid, nextAxis, x, y, z, nearest);
+            }
+        }
+    }
+
+    private void add(long key) {
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY_KEY) {
+            if (keys[i] == key) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+    }
+
+    /**
+     * Sorts the range so that the middle element has only elements not greater than it on the given axis before it,
+     * and only elements not less than it after it, then does the same for both halves with the next axis.
+     */
+    private void build(int start, int end, int axis) {
+        if (end - start <= 1) {
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        select(start, end - 1, mid, axis);
+        int nextAxis = axis == 2 ? 0 : axis + 1;
+        build(start, mid, nextAxis);
+        build(mid + 1, end, nextAxis);
+    }
+
+    // quickselect, leaves the k-th element in place with smaller ones before and larger ones after
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            int pivot = coord((left + right) >>> 1, axis);
+            int i = left, j = right;
+            while (i <= j) {
+                while (coord(i, axis) < pivot) {
+                    i++;
+                }
+                while (coord(j, axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int coord(int i, int axis) {
+        return axis == 0 ? treeX[i] : axis == 1 ? treeY[i] : treeZ[i];
+    }
+
+    private void swap(int i, int j) {
+        swap(treeX, i, j);
+        swap(treeY, i, j);
+        swap(treeZ, i, j);
+        swap(treeOrder, i, j);
+    }
+
+    private static void swap(int[] arr, int i, int j) {
+        int tmp = arr[i];
+        arr[i] = arr[j];
+        arr[j] = tmp;
+    }
+
+    private static long pack(int x, int y, int z) {
+        return (x & 0x1FFFFFL) | (y & 0x1FFFFFL) << 21 | (z & 0x1FFFFFL) << 42;
+    }
+
+    private static int hash(long key) {
+        // murmur3 finalizer, packed coordinates of nearby cubes differ only in a few bits
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static final class Nearest {
+
+        int node = -1;
+        double distSq;
+    }
+}
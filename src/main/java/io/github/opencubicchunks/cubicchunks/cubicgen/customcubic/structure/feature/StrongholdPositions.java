@@ -0,0 +1,326 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.feature;
+
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.blockToCube;
+import static io.github.opencubicchunks.cubicchunks.api.util.Coords.cubeToCenterBlock;
+import static java.lang.Math.cos;
+import static java.lang.Math.round;
+import static java.lang.Math.sin;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.storage.MapStorage;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Stronghold positions of a world, computed lazily one ring at a time.
+ * <p>
+ * Positions are placed in rings of increasing distance from the origin, and each one is moved to a nearby allowed biome.
+ * The biome search is slow and every position depends on the random state left by the previous one, so the positions
+ * have to be computed in order, but only the rings that can reach a queried position need to be computed. This way
+ * generating cubes near spawn doesn't need to wait for the biome search of all strongholds. Computed positions are
+ * saved with the world together with the state of the ring placement, so they are never computed again, and computing
+ * more positions after a restart continues where it stopped.
+ * <p>
+ * The biome provider isn't thread safe, so positions are computed on the thread that asks for them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class StrongholdPositions {
+
+    /**
+     * Maximum distance in cubes between the final position of a stronghold and the position it's placed at before
+     * rounding, moving to an allowed biome (up to 112 blocks on each horizontal axis) and aligning to structure spacing
+     */
+    private static final double MAX_POSITION_OFFSET = 24;
+
+    private final World world;
+    private final List<Biome> allowedBiomes;
+    private final double distance;
+    private final boolean alternatePositions;
+    private final int minCubeY, maxCubeY;
+    private final int spacing;
+    private final int initialSpread;
+    private final String dataName;
+
+    private final CubePos[] positions;
+    private int computedCount;
+    @Nullable private StrongholdPositionData data;
+
+    // state of the ring placement between computed positions
+    @Nullable private CountingRandom rand;
+    private double angle;
+    private int distFactor;
+    private int ringStep;
+    private int spread;
+
+    /** Index of all computed positions, replaced when more positions are computed */
+    private volatile StrongholdPositionIndex index;
+    /** All positions that can end up within this distance of the origin are computed, see {@link #distanceFromOrigin} */
+    private volatile double computedRadius;
+
+    StrongholdPositions(World world, String structureName, List<Biome> allowedBiomes, int count, double distance, int spread,
+            boolean alternatePositions, int minCubeY, int maxCubeY, int spacing) {
+        this.world = world;
+        this.allowedBiomes = allowedBiomes;
+        this.distance = distance;
+        this.alternatePositions = alternatePositions;
+        this.minCubeY = minCubeY;
+        this.maxCubeY = maxCubeY;
+        this.spacing = spacing;
+        this.spread = spread;
+        this.initialSpread = spread;
+        this.positions = new CubePos[count];
+        this.dataName = structureName + "_positions";
+
+        StrongholdPositionData saved = loadSavedPositions(count, spread);
+        if (saved != null && saved.getComputedCount() > 0) {
+            this.data = saved;
+            saved.copyPositions(this.positions);
+            this.computedCount = saved.getComputedCount();
+            this.rand = new CountingRandom(world.getSeed());
+            this.rand.skip(saved.getRandomDraws());
+            this.angle = saved.getAngle();
+            this.distFactor = saved.getDistFactor();
+            this.ringStep = saved.getRingStep();
+            this.spread = saved.getCurrentSpread();
+        }
+        publishComputedPositions();
+    }
+
+    /**
+     * Returns true if there is a stronghold at the given cube position
+     */
+    boolean contains(int cubeX, int cubeY, int cubeZ) {
+        return getIndex(distanceFromOrigin(cubeX, cubeY, cubeZ)).contains(cubeX, cubeY, cubeZ);
+    }
+
+    /**
+     * Returns the center of the closest stronghold cube, only computing positions that can be closer than the best one
+     * found so far
+     */
+    @Nullable
+    BlockPos findClosest(BlockPos pos) {
+        double queryDistance = distanceFromOrigin(blockToCube(pos.getX()), blockToCube(pos.getY()), blockToCube(pos.getZ()));
+        double searchRadius = queryDistance;
+        while (true) {
+            getIndex(searchRadius);
+            // read the radius before the index, so that the index contains all positions within that radius
+            double computedRadius = this.computedRadius;
+            BlockPos closest = this.index.findClosest(pos);
+            if (computedRadius == Double.POSITIVE_INFINITY) {
+                return closest;
+            }
+            if (closest != null) {
+                // positions that aren't computed yet are at least (computedRadius - queryDistance) cubes away
+                double minRemainingBlockDist = (computedRadius - queryDistance - 1) * 16;
+                if (minRemainingBlockDist > 0 && minRemainingBlockDist * minRemainingBlockDist > closest.distanceSq(pos)) {
+                    return closest;
+                }
+            }
+            searchRadius = computedRadius + distance * 6.0D;
+        }
+    }
+
+    /**
+     * Returns the positions computed so far, in the order they were computed
+     */
+    synchronized CubePos[] getComputedPositions() {
+        return Arrays.copyOf(this.positions, this.computedCount);
+    }
+
+    /**
+     * Returns the index that contains all positions within the given distance from origin, see {@link #distanceFromOrigin}
+     */
+    private StrongholdPositionIndex getIndex(double distanceFromOrigin) {
+        // the radius is published after the index, see publishComputedPositions
+        if (distanceFromOrigin < this.computedRadius) {
+            return this.index;
+        }
+        synchronized (this) {
+            if (distanceFromOrigin >= this.computedRadius) {
+                computeUntil(distanceFromOrigin);
+            }
+            return this.index;
+        }
+    }
+
+    private void computeUntil(double distanceFromOrigin) {
+        int firstNew = this.computedCount;
+        if (this.rand == null) {
+            this.rand = new CountingRandom(this.world.getSeed());
+            this.angle = this.rand.nextDouble() * Math.PI * 2.0D;
+        }
+        while (this.computedCount < this.positions.length
+                && ringMinDistance(this.distFactor) - MAX_POSITION_OFFSET <= distanceFromOrigin) {
+            computeNext();
+        }
+        if (this.computedCount > firstNew) {
+            savePositions();
+        }
+        publishComputedPositions();
+    }
+
+    /**
+     * Publishes the positions computed so far. {@link #computedRadius} guards reads of {@link #index} without the lock,
+     * so it's written last: a thread that sees the new radius also sees the index containing all positions within it.
+     */
+    private void publishComputedPositions() {
+        this.index = new StrongholdPositionIndex(Arrays.copyOf(this.positions, this.computedCount));
+        if (this.computedCount == this.positions.length) {
+            this.computedRadius = Double.POSITIVE_INFINITY;
+        } else {
+            this.computedRadius = ringMinDistance(this.distFactor) - MAX_POSITION_OFFSET;
+        }
+    }
+
+    private void computeNext() {
+        Random rand = this.rand;
+        int i = this.computedCount;
+        double distance = 4.0D * this.distance + this.distance * (double) distFactor * 6.0D + (rand.nextDouble() - 0.5D) * this.distance * 2.5D;
+        int chunkX;
+        int chunkY;
+        int chunkZ;
+        if (alternatePositions) {
+            double yAngle = -rand.nextDouble() * Math.PI;
+            chunkX = (int) round(cos(angle) * cos(yAngle) * distance);
+            chunkY = (int) round(sin(yAngle) * distance) + maxCubeY; // TODO: use configuration-based offset
+            chunkZ = (int) round(sin(angle) * cos(yAngle) * distance);
+        } else {
+            chunkX = (int) round(cos(angle) * distance);
+            chunkY = MathHelper.getInt(rand, minCubeY, maxCubeY);
+            chunkZ = (int) round(sin(angle) * distance);
+        }
+        BlockPos blockPos = this.world.getBiomeProvider().findBiomePosition(
+                cubeToCenterBlock(chunkX), cubeToCenterBlock(chunkZ), 112, this.allowedBiomes, rand);
+
+        if (blockPos != null) {
+            chunkX = blockToCube(blockPos.getX());
+            chunkZ = blockToCube(blockPos.getZ());
+        }
+
+        chunkX = Math.floorDiv(chunkX, this.spacing) * this.spacing;
+        chunkY = Math.floorDiv(chunkY, this.spacing) * this.spacing;
+        chunkZ = Math.floorDiv(chunkZ, this.spacing) * this.spacing;
+
+        this.positions[i] = new CubePos(chunkX, chunkY, chunkZ);
+        this.computedCount++;
+
+        angle += (Math.PI * 2D) / (double) this.spread;
+        ++ringStep;
+
+        if (ringStep == this.spread) {
+            ++distFactor;
+            ringStep = 0;
+            this.spread += 2 * this.spread / (distFactor + 1);
+            this.spread = Math.min(this.spread, this.positions.length - i);
+            angle += rand.nextDouble() * Math.PI * 2.0D;
+        }
+    }
+
+    /**
+     * Minimum distance from origin of a stronghold in the given ring, before moving it to an allowed biome
+     */
+    private double ringMinDistance(int distFactor) {
+        return 4.0D * this.distance + this.distance * (double) distFactor * 6.0D - 0.5D * this.distance * 2.5D;
+    }
+
+    /**
+     * Distance in cubes that is compared to ring distances: horizontal distance from the origin, or for alternate
+     * positions, 3d distance from the origin moved up to the top of the strongholds height range
+     */
+    private double distanceFromOrigin(int cubeX, int cubeY, int cubeZ) {
+        double dy = alternatePositions ? cubeY - maxCubeY : 0;
+        return Math.sqrt((double) cubeX * cubeX + dy * dy + (double) cubeZ * cubeZ);
+    }
+
+    @Nullable
+    private StrongholdPositionData loadSavedPositions(int count, int spread) {
+        MapStorage storage = this.world.getPerWorldStorage();
+        StrongholdPositionData data;
+        synchronized (storage) {
+            data = (StrongholdPositionData) storage.getOrLoadData(StrongholdPositionData.class, this.dataName);
+        }
+        if (data == null || !data.matches(this.world.getSeed(), count, this.distance, spread,
+                this.alternatePositions, this.minCubeY, this.maxCubeY)) {
+            return null;
+        }
+        return data;
+    }
+
+    private void savePositions() {
+        StrongholdPositionData data = this.data;
+        if (data == null) {
+            data = new StrongholdPositionData(this.dataName);
+            // spread changes while positions are computed, save the initial value that was used
+            data.setSettings(this.world.getSeed(), this.positions.length, this.distance, this.initialSpread,
+                    this.alternatePositions, this.minCubeY, this.maxCubeY);
+            MapStorage storage = this.world.getPerWorldStorage();
+            synchronized (storage) {
+                storage.setData(this.dataName, data);
+            }
+            this.data = data;
+        }
+        assert this.rand != null;
+        data.setPositions(this.positions, this.computedCount, this.rand.draws, this.angle, this.distFactor, this.ringStep, this.spread);
+        data.markDirty();
+    }
+
+    /**
+     * Random that counts how many values it generated, so that its state can be saved as the number of values to skip
+     * after seeding it
+     */
+    private static final class CountingRandom extends Random {
+
+        private static final long serialVersionUID = 1L;
+
+        private long draws;
+
+        CountingRandom(long seed) {
+            super(seed);
+        }
+
+        @Override protected int next(int bits) {
+            draws++;
+            return super.next(bits);
+        }
+
+        void skip(long count) {
+            for (long i = 0; i < count; i++) {
+                next(32);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.feature;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+import net.minecraft.world.gen.structure.StructureStart;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Spatial index of structure starts, bucketed by 64x64x64 block regions their bounding boxes overlap.
+ * <p>
+ * Kept next to {@link CubicFeatureGenerator#structureMap} so that queries for a position or a cube only look at
+ * structures that can overlap it, instead of every structure ever generated in the world. Bounding boxes of structure
+ * starts are expected not to change once they are added. Starts are added rarely compared to how often the index is
+ * queried, so buckets are copy-on-write lists that can be read from multiple threads without locking.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class StructureStartIndex {
+
+    private static final int BUCKET_BITS = 6;
+
+    private final Map<Long, List<StructureStart>> buckets = new ConcurrentHashMap<>();
+
+    void add(ICubicStructureStart cubicStart) {
+        StructureStart start = (StructureStart) cubicStart;
+        StructureBoundingBox box = start.getBoundingBox();
+        for (int bucketX = box.minX >> BUCKET_BITS; bucketX <= box.maxX >> BUCKET_BITS; bucketX++) {
+            for (int bucketY = box.minY >> BUCKET_BITS; bucketY <= box.maxY >> BUCKET_BITS; bucketY++) {
+                for (int bucketZ = box.minZ >> BUCKET_BITS; bucketZ <= box.maxZ >> BUCKET_BITS; bucketZ++) {
+                    buckets.computeIfAbsent(bucketKey(bucketX, bucketY, bucketZ), k -> new CopyOnWriteArrayList<>()).add(start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the structure starts whose bounding box may contain the given position. The list must not be modified.
+     */
+    List<StructureStart> getStartsAt(BlockPos pos) {
+        List<StructureStart> bucket = buckets.get(bucketKey(pos.getX() >> BUCKET_BITS, pos.getY() >> BUCKET_BITS, pos.getZ() >> BUCKET_BITS));
+        return bucket == null ? Collections.emptyList() : bucket;
+    }
+
+    /**
+     * Adds each structure start whose bounding box intersects the given box to the list, exactly once. Min and max
+     * coordinates are inclusive.
+     */
+    void collectIntersecting(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, List<StructureStart> out) {
+        int minBucketX = minX >> BUCKET_BITS, maxBucketX = maxX >> BUCKET_BITS;
+        int minBucketY = minY >> BUCKET_BITS, maxBucketY = maxY >> BUCKET_BITS;
+        int minBucketZ = minZ >> BUCKET_BITS, maxBucketZ = maxZ >> BUCKET_BITS;
+        for (int bucketX = minBucketX; bucketX <= maxBucketX; bucketX++) {
+            for (int bucketY = minBucketY; bucketY <= maxBucketY; bucketY++) {
+                for (int bucketZ = minBucketZ; bucketZ <= maxBucketZ; bucketZ++) {
+                    List<StructureStart> bucket = buckets.get(bucketKey(bucketX, bucketY, bucketZ));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (StructureStart start : bucket) {
+                        StructureBoundingBox box = start.getBoundingBox();
+                        if (box.maxX < minX || box.minX > maxX ||
+                                box.maxY < minY || box.minY > maxY ||
+                                box.maxZ < minZ || box.minZ > maxZ) {
+                            continue;
+                        }
+                        // a start is in every bucket it overlaps, only take it from the first one that is also in the query
+                        if (bucketX != Math.max(box.minX >> BUCKET_BITS, minBucketX) ||
+                                bucketY != Math.max(box.minY >> BUCKET_BITS, minBucketY) ||
+                                bucketZ != Math.max(box.minZ >> BUCKET_BITS, minBucketZ)) {
+                            continue;
+                        }
+                        out.add(start);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long bucketKey(int x, int y, int z) {
+        return (x & 0x1FFFFFL) | (y & 0x1FFFFFL) << 21 | (z & 0x1FFFFFL) << 42;
+    }
+}
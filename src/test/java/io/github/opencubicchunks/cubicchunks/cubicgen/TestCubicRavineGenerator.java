@@ -0,0 +1,137 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.CubicRavineGenerator;
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.MinecraftEnvironment;
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.ReferenceRavineGenerator;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.World;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Golden test for ravine carving: the optimized generator must carve exactly the same blocks as the reference one.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubicRavineGenerator {
+
+    private static final long[] SEEDS = {0L, 1L, 42L, 123456789L, -7046029254386353131L};
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testSameAsReference() {
+        int carved = 0;
+        for (long seed : SEEDS) {
+            World world = Mockito.mock(World.class, Mockito.withSettings().extraInterfaces(ICubicWorld.class));
+            when(world.getSeed()).thenReturn(seed);
+
+            CustomGeneratorSettings settings = new CustomGeneratorSettings();
+            CubicRavineGenerator generator = new CubicRavineGenerator(settings);
+            ReferenceRavineGenerator reference = new ReferenceRavineGenerator(Coords.blockToCube(settings.expectedBaseHeight));
+            for (int cubeX = -2; cubeX <= 2; cubeX++) {
+                for (int cubeY = -3; cubeY <= 1; cubeY++) {
+                    for (int cubeZ = -2; cubeZ <= 2; cubeZ++) {
+                        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+                        CubePrimer expected = createTerrain(pos, new CubePrimer());
+                        // the optimized generator also skips water scans in cubes known not to contain water
+                        CubePrimer actual = createTerrain(pos, new LiquidTrackingCubePrimer());
+                        reference.generate(world, expected, pos);
+                        generator.generate(world, actual, pos);
+                        carved += assertSameBlocks(seed, pos, expected, actual);
+                    }
+                }
+            }
+        }
+        assertTrue("No ravines generated, the test doesn't check anything", carved > 0);
+    }
+
+    /**
+     * Layered stone/dirt/grass terrain with a few water blocks, so that all code paths of the carver are used
+     */
+    private static CubePrimer createTerrain(CubePos pos, CubePrimer primer) {
+        for (int localX = 0; localX < ICube.SIZE; localX++) {
+            for (int localY = 0; localY < ICube.SIZE; localY++) {
+                for (int localZ = 0; localZ < ICube.SIZE; localZ++) {
+                    int blockX = Coords.localToBlock(pos.getX(), localX);
+                    int blockY = Coords.localToBlock(pos.getY(), localY);
+                    int blockZ = Coords.localToBlock(pos.getZ(), localZ);
+                    IBlockState state;
+                    if (blockY > 16) {
+                        continue;
+                    } else if (blockY == 16) {
+                        state = Blocks.GRASS.getDefaultState();
+                    } else if (blockY >= 12) {
+                        state = Blocks.DIRT.getDefaultState();
+                    } else if (blockY == 8 && ((blockX ^ blockZ) & 15) == 0) {
+                        state = Blocks.WATER.getDefaultState();
+                    } else {
+                        state = Blocks.STONE.getDefaultState();
+                    }
+                    primer.setBlockState(localX, localY, localZ, state);
+                }
+            }
+        }
+        return primer;
+    }
+
+    private static int assertSameBlocks(long seed, CubePos pos, CubePrimer expected, CubePrimer actual) {
+        int carved = 0;
+        for (int localX = 0; localX < ICube.SIZE; localX++) {
+            for (int localY = 0; localY < ICube.SIZE; localY++) {
+                for (int localZ = 0; localZ < ICube.SIZE; localZ++) {
+                    IBlockState expectedState = expected.getBlockState(localX, localY, localZ);
+                    assertEquals("seed=" + seed + ", cube=" + pos + ", local=(" + localX + ", " + localY + ", " + localZ + ")",
+                            expectedState, actual.getBlockState(localX, localY, localZ));
+                    // ravines replace blocks with air, or with lava deep enough
+                    if (Coords.localToBlock(pos.getY(), localY) <= 16 &&
+                            (expectedState.getBlock() == Blocks.AIR || expectedState.getBlock() == Blocks.FLOWING_LAVA)) {
+                        carved++;
+                    }
+                }
+            }
+        }
+        return carved;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.ColumnContext;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.CubicBiome;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.SurfaceDefaultReplacer;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.replacer.MesaSurfaceReplacer;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.replacer.MutatedSavannaSurfaceReplacer;
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.replacer.TaigaSurfaceReplacer;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder.IBuilder;
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.MinecraftEnvironment;
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.ReferenceSurfaceReplacer;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Biomes;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeTaiga;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Golden test for surface replacers: replacers that choose surface blocks per column must replace exactly the same
+ * blocks as the reference ones that modify a shared replacer, with and without column context.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestSurfaceReplacers {
+
+    private static final int COLUMNS = 2000;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testDefaultSameAsReference() {
+        for (Biome biome : new Biome[]{Biomes.PLAINS, Biomes.DESERT, Biomes.MESA, Biomes.TAIGA}) {
+            IBuilder depthNoise = SurfaceDefaultReplacer.makeDepthNoise();
+            assertSameBlocks(biome,
+                    new ReferenceSurfaceReplacer(biome.topBlock, biome.fillerBlock, depthNoise, 1.0, 63.0),
+                    new SurfaceDefaultReplacer(biome.topBlock, biome.fillerBlock, depthNoise, 1.0, 63.0));
+        }
+    }
+
+    @Test
+    public void testTaigaSameAsReference() {
+        for (Biome biome : new Biome[]{Biomes.TAIGA, Biomes.REDWOOD_TAIGA, Biomes.MUTATED_REDWOOD_TAIGA}) {
+            IBuilder depthNoise = SurfaceDefaultReplacer.makeDepthNoise();
+            ReferenceSurfaceReplacer reference = new ReferenceSurfaceReplacer(biome.topBlock, biome.fillerBlock, depthNoise, 1.0, 63.0);
+            SurfaceDefaultReplacer replacer = new SurfaceDefaultReplacer(biome.topBlock, biome.fillerBlock, depthNoise, 1.0, 63.0);
+            assertSameBlocks(biome, reference.taiga((BiomeTaiga) biome), new TaigaSurfaceReplacer(replacer, (BiomeTaiga) biome));
+        }
+    }
+
+    @Test
+    public void testMutatedSavannaSameAsReference() {
+        Biome biome = Biomes.MUTATED_SAVANNA;
+        IBuilder depthNoise = SurfaceDefaultReplacer.makeDepthNoise();
+        ReferenceSurfaceReplacer reference = new ReferenceSurfaceReplacer(biome.topBlock, biome.fillerBlock, depthNoise, 1.0, 63.0);
+        SurfaceDefaultReplacer replacer = new SurfaceDefaultReplacer(biome.topBlock, biome.fillerBlock, depthNoise, 1.0, 63.0);
+        assertSameBlocks(biome, reference.mutatedSavanna(), new MutatedSavannaSurfaceReplacer(replacer));
+    }
+
+    @Test
+    public void testMesaColumnContext() {
+        World world = Mockito.mock(World.class);
+        when(world.getSeed()).thenReturn(42L);
+        for (Biome biome : new Biome[]{Biomes.MESA, Biomes.MUTATED_MESA, Biomes.MESA_ROCK}) {
+            CubicBiome cubicBiome = CubicBiome.createForBiome(biome).create();
+            IBuilder depthNoise = SurfaceDefaultReplacer.makeDepthNoise();
+            // without column context, the replacer works the same way as before column context was added
+            assertSameBlocks(biome,
+                    new MesaSurfaceReplacer(world, cubicBiome, depthNoise, 16.0, 64.0, 64.0, 63.0),
+                    new MesaSurfaceReplacer(world, cubicBiome, depthNoise, 16.0, 64.0, 64.0, 63.0));
+        }
+    }
+
+    /**
+     * Compares both replacers in random columns near the surface, with random gradients, so that all surface, filler
+     * and underwater cases are used. The expected replacer is used without column context, and the actual one both
+     * with and without it.
+     */
+    private static void assertSameBlocks(Biome biome, IBiomeBlockReplacer expected, IBiomeBlockReplacer actual) {
+        Random rand = new Random(42);
+        ColumnContext context = new ColumnContext();
+        int replaced = 0;
+        for (int i = 0; i < COLUMNS; i++) {
+            int x = rand.nextInt(1024) - 512;
+            int z = rand.nextInt(1024) - 512;
+            actual.onColumnStart(x, z, context);
+            for (int y = 40; y < 80; y++) {
+                double dx = rand.nextDouble() * 4 - 2;
+                double dy = rand.nextInt(8) == 0 ? rand.nextDouble() : -0.1 - rand.nextDouble() * 2;
+                double dz = rand.nextDouble() * 4 - 2;
+                double density = rand.nextDouble() * 21 - 1;
+                IBlockState previous = rand.nextInt(16) == 0 ? Blocks.AIR.getDefaultState() : Blocks.STONE.getDefaultState();
+
+                IBlockState expectedState = expected.getReplacedBlock(previous, x, y, z, dx, dy, dz, density);
+                String message = biome.getRegistryName() + " at (" + x + ", " + y + ", " + z + "), density=" + density + ", dy=" + dy;
+                assertEquals(message, expectedState, actual.getReplacedBlock(previous, x, y, z, dx, dy, dz, density));
+                assertEquals(message, expectedState, actual.getReplacedBlock(previous, x, y, z, dx, dy, dz, density, context));
+                if (expectedState != previous) {
+                    replaced++;
+                }
+            }
+        }
+        assertTrue("No blocks replaced in " + biome.getRegistryName() + ", the test doesn't check anything", replaced > 0);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.replacer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.MinecraftEnvironment;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.gen.NoiseGeneratorPerlin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestMesaSurfaceNoise {
+
+    private static final long SEED = 42;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testSameAsDirectNoise() {
+        NoiseGeneratorPerlin bandOffsetNoise = new NoiseGeneratorPerlin(new Random(SEED), 1);
+        MesaSurfaceNoise noise = new MesaSurfaceNoise(SEED, bandOffsetNoise);
+
+        Random random = new Random(SEED);
+        NoiseGeneratorPerlin pillarNoise = new NoiseGeneratorPerlin(random, 4);
+        NoiseGeneratorPerlin pillarRoofNoise = new NoiseGeneratorPerlin(random, 1);
+
+        for (int x = -600; x < 600; x += 7) {
+            for (int z = -600; z < 600; z += 5) {
+                MesaSurfaceNoise.Column column = noise.getColumn(x, z);
+                String position = "(" + x + ", " + z + ")";
+                assertEquals(position, (int) Math.round(bandOffsetNoise.getValue(x / 512.0, z / 512.0) * 2.0D),
+                        column.getBandOffset(x, z));
+                assertEquals(position, pillarNoise.getValue(MathHelper.floor(x * 0.25D), MathHelper.floor(z * 0.25D)),
+                        column.getPillar(x, z), 0);
+                assertEquals(position, pillarRoofNoise.getValue(MathHelper.floor(x / 512.0), MathHelper.floor(z / 512.0)),
+                        column.getPillarRoof(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testBandOffsetDependsOnZ() {
+        MesaSurfaceNoise noise = new MesaSurfaceNoise(SEED, new NoiseGeneratorPerlin(new Random(SEED), 1));
+
+        boolean differs = false;
+        for (int z = 0; z < 2048 && !differs; z += 16) {
+            differs = noise.getColumn(0, z).getBandOffset(0, z) != noise.getColumn(0, 0).getBandOffset(0, 0);
+        }
+        assertTrue("Band offset doesn't depend on Z", differs);
+    }
+
+    @Test
+    public void testConcurrentColumnsMatchPosition() throws InterruptedException {
+        NoiseGeneratorPerlin bandOffsetNoise = new NoiseGeneratorPerlin(new Random(SEED), 1);
+        MesaSurfaceNoise noise = new MesaSurfaceNoise(SEED, bandOffsetNoise);
+
+        // columns 8 apart share a cache slot, so threads keep replacing each other's columns
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t * 8 * 16;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000 && failure.get() == null; i++) {
+                    int x = offset + (i % 5) * 8 * 16;
+                    int z = -offset + (i % 3) * 16;
+                    int expected = (int) Math.round(bandOffsetNoise.getValue(x / 512.0, z / 512.0) * 2.0D);
+                    int actual = noise.getColumn(x, z).getBandOffset(x, z);
+                    if (actual != expected) {
+                        failure.set("(" + x + ", " + z + "): expected " + expected + " but was " + actual);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get(), failure.get());
+    }
+}
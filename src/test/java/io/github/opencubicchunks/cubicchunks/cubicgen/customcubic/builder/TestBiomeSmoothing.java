@@ -0,0 +1,80 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder;
+
+import static org.junit.Assert.assertEquals;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.MinecraftEnvironment;
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.ReferenceBiomeSmoothing;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Biomes;
+import net.minecraft.world.biome.Biome;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.function.IntBinaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Golden test for biome smoothing: the default kernel and radius must give exactly the same terrain data as the
+ * reference fixed radius inverse distance smoothing.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestBiomeSmoothing {
+
+    private static final int DEFAULT_RADIUS = 2;
+    private static final int AREA = 64;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testDefaultKernelSameAsReference() {
+        Biome[] biomes = {Biomes.PLAINS, Biomes.DESERT, Biomes.OCEAN, Biomes.DEEP_OCEAN, Biomes.EXTREME_HILLS,
+                Biomes.MESA, Biomes.SWAMPLAND, Biomes.RIVER};
+        // patches of 3x3 sections so that both biome borders and biome interiors are covered
+        IntBinaryOperator sectionBiomeIds = (x, z) -> {
+            int hash = Math.floorDiv(x, 3) * 31 + Math.floorDiv(z, 3) * 17;
+            return Biome.getIdForBiome(biomes[Math.floorMod(hash ^ (hash >>> 3), biomes.length)]);
+        };
+
+        BiomeSmoothing smoothing = new BiomeSmoothing(ForgeRegistries.BIOMES, DEFAULT_RADIUS,
+                BiomeSource.SmoothingKernel.INVERSE_DISTANCE, false);
+        ReferenceBiomeSmoothing reference = new ReferenceBiomeSmoothing(DEFAULT_RADIUS);
+
+        for (int x = -AREA; x < AREA; x++) {
+            for (int z = -AREA; z < AREA; z++) {
+                BiomeSource.BiomeTerrainData data = smoothing.smooth(sectionBiomeIds, x, z);
+                double[] expected = reference.smooth(sectionBiomeIds, x, z);
+                assertEquals("height at " + x + ", " + z, expected[0], data.height, 0);
+                assertEquals("height variation at " + x + ", " + z, expected[1], data.heightVariation, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.github.opencubicchunks.cubicchunks.api.util.Coords;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Sampling shortcuts used by populators must have the same distribution as making every attempt and rejecting the
+ * failed ones. All random values are seeded, tolerances are a few standard deviations wide so that the tests can only
+ * fail when the distribution is wrong.
+ */
+public class TestPopulationSampling {
+
+    private static final int SEEDS = 20;
+    private static final int SAMPLES_PER_SEED = 10000;
+    private static final double SIGMAS = 5;
+
+    // crosses 0 and 1 in the tested cubes, so that clamping is tested too
+    private static final IntToDoubleFunction PROBABILITY_FOR_Y = y -> 0.5 + y / 40.0;
+    private static final int[] CUBE_YS = {-2, -1, 0, 1};
+    private static final int ATTEMPTS = 200000;
+
+    @Test public void testBinomialMeanAndVariance() {
+        checkBinomial(1, 0.25);
+        checkBinomial(10, 0.1);
+        checkBinomial(50, 0.02);
+        checkBinomial(64, 0.5);
+        checkBinomial(20, 0.9);
+    }
+
+    @Test public void testBinomialEdgeCases() {
+        Random random = new Random(42);
+        assertEquals(0, PopulatorUtils.binomial(random, 0, 0.5));
+        assertEquals(0, PopulatorUtils.binomial(random, 10, 0));
+        assertEquals(10, PopulatorUtils.binomial(random, 10, 1));
+    }
+
+    @Test public void testHeightProbabilityMatchesRejection() {
+        HeightProbabilityTable table = new HeightProbabilityTable(PROBABILITY_FOR_Y);
+        for (int cubeY : CUBE_YS) {
+            HeightProbabilityTable.CubeProbabilities probabilities = table.forCube(cubeY);
+
+            // every attempt picks a height and succeeds with the probability at that height
+            Random random = new Random(cubeY);
+            long[] rejectionOffsets = new long[ICube.SIZE];
+            int successes = 0;
+            for (int i = 0; i < ATTEMPTS; i++) {
+                int yOffset = random.nextInt(ICube.SIZE) + ICube.SIZE / 2;
+                if (random.nextDouble() > PROBABILITY_FOR_Y.applyAsDouble(Coords.cubeToMinBlock(cubeY) + yOffset)) {
+                    continue;
+                }
+                rejectionOffsets[yOffset - ICube.SIZE / 2]++;
+                successes++;
+            }
+
+            double p = probabilities.getAttemptProbability();
+            assertWithin("attempt probability of cube " + cubeY, ATTEMPTS * p, successes, Math.sqrt(ATTEMPTS * p * (1 - p)));
+
+            // the same amount of successful attempts sampled directly
+            long[] sampledOffsets = new long[ICube.SIZE];
+            for (int i = 0; i < successes; i++) {
+                int yOffset = probabilities.sampleYOffset(random);
+                assertTrue("Y offset " + yOffset + " outside of population area",
+                        yOffset >= ICube.SIZE / 2 && yOffset < ICube.SIZE + ICube.SIZE / 2);
+                sampledOffsets[yOffset - ICube.SIZE / 2]++;
+            }
+            for (int i = 0; i < ICube.SIZE; i++) {
+                double binP = (double) rejectionOffsets[i] / Math.max(successes, 1);
+                // difference of two independent counts with the same distribution
+                double sigma = Math.sqrt(2 * successes * binP * (1 - binP));
+                assertWithin("successes at Y offset " + (i + ICube.SIZE / 2) + " of cube " + cubeY,
+                        rejectionOffsets[i], sampledOffsets[i], sigma + 1);
+            }
+        }
+    }
+
+    private static void checkBinomial(int attempts, double probability) {
+        int samples = SEEDS * SAMPLES_PER_SEED;
+        double sum = 0;
+        double sumSquares = 0;
+        for (int seed = 0; seed < SEEDS; seed++) {
+            Random random = new Random(seed);
+            for (int i = 0; i < SAMPLES_PER_SEED; i++) {
+                int value = PopulatorUtils.binomial(random, attempts, probability);
+                assertTrue(value + " successes out of " + attempts + " attempts", value >= 0 && value <= attempts);
+                sum += value;
+                sumSquares += (double) value * value;
+            }
+        }
+        double mean = sum / samples;
+        double variance = (sumSquares - sum * mean) / (samples - 1);
+
+        double expectedMean = attempts * probability;
+        double expectedVariance = attempts * probability * (1 - probability);
+        String name = "binomial(" + attempts + ", " + probability + ")";
+        assertWithin(name + " mean", expectedMean, mean, Math.sqrt(expectedVariance / samples));
+        // standard deviation of the sample variance, from the fourth central moment of the binomial distribution
+        double fourthMoment = expectedVariance * (1 + 3 * (attempts - 2) * probability * (1 - probability));
+        double varianceSigma = Math.sqrt((fourthMoment - expectedVariance * expectedVariance * (samples - 3) / (samples - 1)) / samples);
+        assertWithin(name + " variance", expectedVariance, variance, varianceSigma);
+    }
+
+    private static void assertWithin(String name, double expected, double actual, double sigma) {
+        assertTrue(name + ": expected " + expected + " but was " + actual, Math.abs(actual - expected) <= SIGMAS * sigma);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.populator;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
+import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.ICubicPopulator;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.MinecraftEnvironment;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeDecorator;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Allocation regression tests for population. Populating a cube should allocate nothing except what vanilla world
+ * generators allocate themselves, so that exploring doesn't create garbage proportional to the amount of decoration
+ * attempts.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPopulatorAllocation {
+
+    /**
+     * Budget per populated cube, on top of the block positions vanilla generators allocate. Small enough that a
+     * write buffer or a world generator allocated for each cube doesn't fit
+     */
+    private static final long BYTES_PER_CUBE = 16;
+    // block positions allocated by each dead bush attempt, by WorldGenDeadBush for its 4 placement attempts
+    private static final int DEAD_BUSH_POSITIONS = 4;
+    // block positions allocated by each liquid source attempt, 2 by the decorator and 2 by WorldGenLiquids
+    private static final int LIQUID_SOURCE_POSITIONS = 4;
+    // cube Y where no ores apply and there are almost no liquid sources
+    private static final int HIGH_CUBE_Y = 1000;
+    // cube Y where most ores, dirt, gravel and stone variants are placed
+    private static final int ORE_CUBE_Y = 0;
+    // cube Y where liquid sources are the most likely
+    private static final int LOW_CUBE_Y = -500;
+    private static final int WARMUP_CUBES = 2000;
+    private static final int MEASURED_CUBES = 2000;
+
+    private com.sun.management.ThreadMXBean allocationBean;
+    private StoneWorld world;
+    private CustomGeneratorSettings cfg;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue("Thread allocation measurement not supported", threadBean instanceof com.sun.management.ThreadMXBean);
+        allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue("Thread allocation measurement not supported", allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        world = Mockito.mock(StoneWorld.class, Mockito.withSettings().stubOnly());
+        world.cube = Mockito.mock(StoneCube.class, Mockito.withSettings().stubOnly());
+        cfg = CustomGeneratorSettings.defaults();
+    }
+
+    @Test
+    public void testBufferedPopulatorAllocation() {
+        ICubicPopulator[] populators = {new DefaultDecorator.Ores(cfg)};
+        long allocated = populate(populators, emptyBiome(), HIGH_CUBE_Y);
+        assertWithinBudget(allocated, 0);
+    }
+
+    @Test
+    public void testOreAllocation() {
+        ICubicPopulator[] populators = {new DefaultDecorator.Ores(cfg)};
+        long allocated = populate(populators, emptyBiome(), ORE_CUBE_Y);
+        assertTrue("No ores placed", world.cube.blockWrites > 0);
+        // each block flushed into a cube gets an immutable copy of its position, blocks outside of the population area
+        // are written to the world directly
+        assertWithinBudget(allocated, world.cube.blockWrites + world.blockWrites);
+    }
+
+    @Test
+    public void testDeadBushAllocation() {
+        Biome biome = emptyBiome();
+        biome.decorator.deadBushPerChunk = 64;
+        biome.decorator.generateFalls = false;
+        ICubicPopulator[] populators = {new DefaultDecorator(cfg)};
+
+        long allocated = populate(populators, biome, HIGH_CUBE_Y);
+        assertTrue("No dead bush attempts", world.surfaceCalls > 0);
+        assertWithinBudget(allocated, world.surfaceCalls * DEAD_BUSH_POSITIONS);
+    }
+
+    @Test
+    public void testLiquidSourceAllocation() {
+        Biome biome = emptyBiome();
+        biome.decorator.generateFalls = true;
+        ICubicPopulator[] populators = {new DefaultDecorator(cfg)};
+
+        long allocated = populate(populators, biome, LOW_CUBE_Y);
+        // each WorldGenLiquids attempt gets the block above, below and at its position before giving up on stone
+        int attempts = world.blockStateCalls / 3;
+        assertTrue("No liquid source attempts", attempts > 0);
+        assertWithinBudget(allocated, attempts * LIQUID_SOURCE_POSITIONS);
+    }
+
+    private void assertWithinBudget(long allocated, long vanillaBlockPositions) {
+        long budget = BYTES_PER_CUBE * MEASURED_CUBES + vanillaBlockPositions * blockPosSize();
+        assertTrue("Allocated " + allocated + " bytes for " + MEASURED_CUBES + " cubes, budget is " + budget, allocated <= budget);
+    }
+
+    /**
+     * Populates warmup cubes, then returns the amount of bytes allocated by populating the measured cubes. Attempts
+     * are counted by the world for measured cubes only.
+     */
+    private long populate(ICubicPopulator[] populators, Biome biome, int cubeY) {
+        CubePos[] positions = new CubePos[WARMUP_CUBES + MEASURED_CUBES];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new CubePos(i, cubeY, 0);
+        }
+        Random random = new Random(42);
+        populate(populators, biome, random, positions, 0, WARMUP_CUBES);
+        world.surfaceCalls = 0;
+        world.blockStateCalls = 0;
+        world.blockWrites = 0;
+        world.cube.blockWrites = 0;
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        populate(populators, biome, random, positions, WARMUP_CUBES, MEASURED_CUBES);
+        return allocationBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private void populate(ICubicPopulator[] populators, Biome biome, Random random, CubePos[] positions, int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            for (ICubicPopulator populator : populators) {
+                populator.generate(world, random, positions[i], biome);
+            }
+        }
+    }
+
+    private long blockPosSize() {
+        BlockPos[] positions = new BlockPos[1000];
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new BlockPos(i, i, i);
+        }
+        return (allocationBean.getThreadAllocatedBytes(threadId) - before) / positions.length;
+    }
+
+    // a biome with nothing to decorate except the attempts that always happen
+    private static Biome emptyBiome() {
+        Biome biome = Mockito.mock(Biome.class, Mockito.withSettings().stubOnly());
+        BiomeDecorator decorator = new BiomeDecorator();
+        decorator.sandPatchesPerChunk = 0;
+        decorator.clayPerChunk = 0;
+        decorator.gravelPatchesPerChunk = 0;
+        decorator.treesPerChunk = 0;
+        decorator.extraTreeChance = 0;
+        decorator.flowersPerChunk = 0;
+        decorator.grassPerChunk = 0;
+        decorator.generateFalls = false;
+        biome.decorator = decorator;
+        return biome;
+    }
+
+    /**
+     * World made of stone, with a solid surface at the same position in every column and no opaque surface. Mockito
+     * doesn't intercept final methods, so unlike calls to a mock, the calls made by the tested paths don't allocate.
+     */
+    abstract static class StoneWorld extends World implements ICubicWorld {
+
+        private static final BlockPos SURFACE = new BlockPos(0, 64, 0);
+
+        // instances are created by Mockito without running constructors, counters start at 0
+        int surfaceCalls;
+        int blockStateCalls;
+        int blockWrites;
+        StoneCube cube;
+
+        StoneWorld() {
+            super(null, null, null, null, false);
+        }
+
+        @Override public final IBlockState getBlockState(BlockPos pos) {
+            blockStateCalls++;
+            return Blocks.STONE.getDefaultState();
+        }
+
+        @Override public final boolean isAirBlock(BlockPos pos) {
+            return false;
+        }
+
+        @Override public final boolean setBlockState(BlockPos pos, IBlockState newState, int flags) {
+            blockWrites++;
+            return true;
+        }
+
+        @Override public final ICube getCubeFromCubeCoords(int cubeX, int cubeY, int cubeZ) {
+            return cube;
+        }
+
+        @Nullable @Override
+        public final BlockPos getSurfaceForCube(CubePos pos, int xOffset, int zOffset, int spacing, ICubicWorld.SurfaceType type) {
+            if (type != ICubicWorld.SurfaceType.SOLID) {
+                return null;
+            }
+            surfaceCalls++;
+            return SURFACE;
+        }
+    }
+
+    /**
+     * Cube made of stone that ignores writes, shared by all cube positions of a {@link StoneWorld}
+     */
+    abstract static class StoneCube implements ICube {
+
+        int blockWrites;
+
+        @Override public final IBlockState getBlockState(BlockPos pos) {
+            return Blocks.STONE.getDefaultState();
+        }
+
+        @Nullable @Override public final IBlockState setBlockState(BlockPos pos, IBlockState newstate) {
+            blockWrites++;
+            return Blocks.STONE.getDefaultState();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.feature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import net.minecraft.util.math.BlockPos;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestStrongholdPositionIndex {
+
+    @Test public void testContains() {
+        Random rand = new Random(42);
+        CubePos[] positions = randomPositions(rand, 1000, 500);
+        StrongholdPositionIndex index = new StrongholdPositionIndex(positions);
+        for (CubePos pos : positions) {
+            assertTrue(index.contains(pos.getX(), pos.getY(), pos.getZ()));
+        }
+        for (int i = 0; i < 10000; i++) {
+            int x = rand.nextInt(1001) - 500, y = rand.nextInt(1001) - 500, z = rand.nextInt(1001) - 500;
+            assertEquals(linearContains(positions, x, y, z), index.contains(x, y, z));
+        }
+        assertFalse(new StrongholdPositionIndex(new CubePos[0]).contains(0, 0, 0));
+    }
+
+    @Test public void testClosestSameAsLinearScan() {
+        Random rand = new Random(123);
+        // small coordinate range so that there are duplicates and ties
+        for (int count : new int[]{1, 2, 3, 128, 1000}) {
+            CubePos[] positions = randomPositions(rand, count, 20);
+            StrongholdPositionIndex index = new StrongholdPositionIndex(positions);
+            for (int i = 0; i < 2000; i++) {
+                BlockPos pos = new BlockPos(rand.nextInt(801) - 400, rand.nextInt(801) - 400, rand.nextInt(801) - 400);
+                assertEquals(linearClosest(positions, pos), index.findClosest(pos));
+            }
+        }
+    }
+
+    private static CubePos[] randomPositions(Random rand, int count, int range) {
+        CubePos[] positions = new CubePos[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = new CubePos(
+                    rand.nextInt(range * 2 + 1) - range, rand.nextInt(range * 2 + 1) - range, rand.nextInt(range * 2 + 1) - range);
+        }
+        return positions;
+    }
+
+    private static boolean linearContains(CubePos[] positions, int x, int y, int z) {
+        for (CubePos pos : positions) {
+            if (pos.getX() == x && pos.getY() == y && pos.getZ() == z) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the linear scan CubicStrongholdGenerator used before the index
+    private static BlockPos linearClosest(CubePos[] positions, BlockPos pos) {
+        BlockPos closestPos = null;
+        double minDist = Double.MAX_VALUE;
+        for (CubePos cubePos : positions) {
+            BlockPos current = new BlockPos(cubePos.getXCenter(), cubePos.getYCenter(), cubePos.getZCenter());
+            double currentDist = current.distanceSq(pos);
+            if (closestPos == null || currentDist < minDist) {
+                closestPos = current;
+                minDist = currentDist;
+            }
+        }
+        return closestPos;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.feature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.when;
+
+import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.cubicgen.testutil.MinecraftEnvironment;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.BiomeProvider;
+import net.minecraft.world.storage.MapStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.Random;
+
+public class TestStrongholdPositions {
+
+    private static final long SEED = 42;
+    private static final int COUNT = 128;
+    private static final String NAME = "Stronghold";
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    /**
+     * Positions computed after a restart, continuing from saved partial state, must be the same as positions computed
+     * without a restart
+     */
+    @Test public void testResumeFromSavedState() {
+        StrongholdPositions reference = createPositions(new MapStorage(null));
+        reference.contains(1000000, 0, 0);
+        CubePos[] expected = reference.getComputedPositions();
+        assertEquals(COUNT, expected.length);
+
+        MapStorage storage = new MapStorage(null);
+        StrongholdPositions positions = createPositions(storage);
+        positions.findClosest(BlockPos.ORIGIN);
+        CubePos[] beforeRestart = positions.getComputedPositions();
+        assertTrue("All positions computed, the test doesn't check anything",
+                beforeRestart.length > 0 && beforeRestart.length < COUNT);
+
+        StrongholdPositionData saved = (StrongholdPositionData) storage.getOrLoadData(StrongholdPositionData.class, NAME + "_positions");
+        assertNotNull("Computed positions not saved", saved);
+        StrongholdPositionData loaded = new StrongholdPositionData(saved.mapName);
+        loaded.readFromNBT(saved.writeToNBT(new NBTTagCompound()));
+        MapStorage restartedStorage = new MapStorage(null);
+        restartedStorage.setData(loaded.mapName, loaded);
+
+        StrongholdPositions restarted = createPositions(restartedStorage);
+        assertArrayEquals(beforeRestart, restarted.getComputedPositions());
+        restarted.contains(1000000, 0, 0);
+        assertArrayEquals(expected, restarted.getComputedPositions());
+    }
+
+    private static StrongholdPositions createPositions(MapStorage storage) {
+        World world = Mockito.mock(World.class);
+        BiomeProvider biomeProvider = Mockito.mock(BiomeProvider.class);
+        when(world.getSeed()).thenReturn(SEED);
+        when(world.getPerWorldStorage()).thenReturn(storage);
+        when(world.getBiomeProvider()).thenReturn(biomeProvider);
+        // uses the random like the biome search does, with a bound that isn't a power of 2
+        when(biomeProvider.findBiomePosition(anyInt(), anyInt(), anyInt(), any(), any())).thenAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            int x = (Integer) args[0];
+            int z = (Integer) args[1];
+            Random rand = (Random) args[4];
+            return new BlockPos(x + rand.nextInt(225) - 112, 0, z + rand.nextInt(225) - 112);
+        });
+        return new StrongholdPositions(world, NAME, Collections.emptyList(), COUNT, 32, 3, false, 0, 8, 1);
+    }
+}
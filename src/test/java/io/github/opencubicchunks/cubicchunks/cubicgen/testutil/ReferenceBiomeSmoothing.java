@@ -0,0 +1,106 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.testutil;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.ConversionUtils;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.biome.Biome;
+
+import java.util.function.IntBinaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Biome height and volatility smoothing with a fixed inverse distance kernel, kept as a reference implementation so
+ * that {@link io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder.BiomeSource} with the default kernel
+ * can be checked to produce exactly the same terrain data.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ReferenceBiomeSmoothing {
+
+    private final double[] nearBiomeWeightArray;
+    private final int smoothRadius;
+    private final int smoothDiameter;
+
+    public ReferenceBiomeSmoothing(int smoothRadius) {
+        this.smoothRadius = smoothRadius;
+        this.smoothDiameter = smoothRadius * 2 + 1;
+
+        this.nearBiomeWeightArray = new double[this.smoothDiameter * this.smoothDiameter];
+
+        for (int x = -this.smoothRadius; x <= this.smoothRadius; x++) {
+            for (int z = -this.smoothRadius; z <= this.smoothRadius; z++) {
+                final double val = 10.0F / Math.sqrt(x * x + z * z + 0.2F);
+                this.nearBiomeWeightArray[x + this.smoothRadius + (z + this.smoothRadius) * this.smoothDiameter] = val;
+            }
+        }
+    }
+
+    /**
+     * @param sectionBiomeIds biome id of the section at given section x and z coordinates
+     * @return height and height variation of the section, in this order
+     */
+    public double[] smooth(IntBinaryOperator sectionBiomeIds, int sectionX, int sectionZ) {
+        double smoothVolatility = 0.0F;
+        double smoothHeight = 0.0F;
+
+        double biomeWeightSum = 0.0F;
+        final Biome centerBiomeConfig = Biome.getBiome(sectionBiomeIds.applyAsInt(sectionX, sectionZ));
+        final int lookRadius = this.smoothRadius;
+
+        for (int nextX = -lookRadius; nextX <= lookRadius; nextX++) {
+            for (int nextZ = -lookRadius; nextZ <= lookRadius; nextZ++) {
+                final Biome biome = Biome.getBiome(sectionBiomeIds.applyAsInt(sectionX + nextX, sectionZ + nextZ));
+
+                final double biomeHeight = biome.getBaseHeight();
+                final double biomeVolatility = biome.getHeightVariation();
+
+                double biomeWeight = calcBiomeWeight(nextX, nextZ, biomeHeight);
+
+                biomeWeight = Math.abs(biomeWeight);
+                if (biomeHeight > centerBiomeConfig.getBaseHeight()) {
+                    // prefer biomes with lower height?
+                    biomeWeight /= 2.0F;
+                }
+                smoothVolatility += biomeVolatility * biomeWeight;
+                smoothHeight += biomeHeight * biomeWeight;
+
+                biomeWeightSum += biomeWeight;
+            }
+        }
+
+        smoothVolatility /= biomeWeightSum;
+        smoothHeight /= biomeWeightSum;
+
+        return new double[]{
+                ConversionUtils.biomeHeightVanilla((float) smoothHeight),
+                ConversionUtils.biomeHeightVariationVanilla((float) smoothVolatility)
+        };
+    }
+
+    private double calcBiomeWeight(int nextX, int nextZ, double biomeHeight) {
+        return this.nearBiomeWeightArray[nextX + this.smoothRadius + (nextZ + this.smoothRadius) * this.smoothDiameter] / (biomeHeight + 2.0F);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  This file is part of Cubic World Generation, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package io.github.opencubicchunks.cubicchunks.cubicgen.testutil;
+
+import static java.lang.Math.abs;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.builder.IBuilder;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.BlockDirt;
+import net.minecraft.block.BlockSand;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.biome.BiomeTaiga;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Surface replacer with mutable surface and filler blocks, and the taiga and mutated savanna replacers that modify it
+ * for each block, kept as a reference implementation so that
+ * {@link io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.SurfaceDefaultReplacer} and the replacers based
+ * on it can be checked to replace exactly the same blocks.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class ReferenceSurfaceReplacer implements IBiomeBlockReplacer {
+
+    private static final IBlockState COARSE_DIRT = Blocks.DIRT.getDefaultState().withProperty(BlockDirt.VARIANT, BlockDirt.DirtType.COARSE_DIRT);
+    private static final IBlockState PODZOL = Blocks.DIRT.getDefaultState().withProperty(BlockDirt.VARIANT, BlockDirt.DirtType.PODZOL);
+
+    private final IBuilder depthNoise;
+    private IBlockState topBlock;
+    private IBlockState fillerBlock;
+    private final double horizontalGradientDepthDecreaseWeight;
+    private final double oceanHeight;
+
+    public ReferenceSurfaceReplacer(IBlockState topBlock, IBlockState fillerBlock, IBuilder depthNoise,
+            double horizontalGradientDepthDecreaseWeight, double oceanHeight) {
+        this.topBlock = topBlock;
+        this.fillerBlock = fillerBlock;
+        this.depthNoise = depthNoise;
+        this.horizontalGradientDepthDecreaseWeight = horizontalGradientDepthDecreaseWeight;
+        this.oceanHeight = oceanHeight;
+    }
+
+    @Override
+    public IBlockState getReplacedBlock(IBlockState previousBlock, int x, int y, int z, double dx, double dy, double dz, double density) {
+        if (density > 9 * abs(dy) || density < 0) {
+            return previousBlock;
+        }
+        if (previousBlock.getBlock() == Blocks.AIR) {
+            return previousBlock;
+        }
+        double depth = depthNoise.get(x, 0, z);
+        double densityAdjusted = density / abs(dy);
+        if (density + dy <= 0) {
+            if (y < oceanHeight - 7 - depth) {
+                return Blocks.GRAVEL.getDefaultState();
+            }
+            if (y < oceanHeight - 1) {
+                return depth > 0 ? fillerBlock : previousBlock;
+            }
+            return depth > 0 ? topBlock : Blocks.AIR.getDefaultState();
+        } else {
+            double xzSize = Math.sqrt(dx * dx + dz * dz);
+            if (dy < 0 && densityAdjusted < depth + 1 - horizontalGradientDepthDecreaseWeight * xzSize / dy) {
+                return fillerBlock;
+            }
+            if (fillerBlock.getBlock() == Blocks.SAND && depth > 1 && y > oceanHeight - depth) {
+                return fillerBlock.getValue(BlockSand.VARIANT) == BlockSand.EnumType.RED_SAND ?
+                        Blocks.RED_SANDSTONE.getDefaultState() : Blocks.SANDSTONE.getDefaultState();
+            }
+        }
+        return previousBlock;
+    }
+
+    public IBiomeBlockReplacer taiga(BiomeTaiga biome) {
+        return (previousBlock, x, y, z, dx, dy, dz, density) -> {
+            if (biome.type == BiomeTaiga.Type.MEGA || biome.type == BiomeTaiga.Type.MEGA_SPRUCE) {
+                topBlock = Blocks.GRASS.getDefaultState();
+                fillerBlock = Blocks.DIRT.getDefaultState();
+
+                double depth = (depthNoise.get(x, 0, z) - 3) * 3;
+
+                if (depth > 1.75D) {
+                    topBlock = COARSE_DIRT;
+                } else if (depth > -0.95D) {
+                    topBlock = PODZOL;
+                }
+            }
+            return getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density);
+        };
+    }
+
+    public IBiomeBlockReplacer mutatedSavanna() {
+        return (previousBlock, x, y, z, dx, dy, dz, density) -> {
+            topBlock = Blocks.GRASS.getDefaultState();
+            fillerBlock = Blocks.DIRT.getDefaultState();
+
+            double depth = (depthNoise.get(x, 0, z) - 3) * 3;
+
+            if (depth > 1.75D) {
+                topBlock = Blocks.STONE.getDefaultState();
+                fillerBlock = Blocks.STONE.getDefaultState();
+            } else if (depth > -0.5D) {
+                topBlock = COARSE_DIRT;
+            }
+            return getReplacedBlock(previousBlock, x, y, z, dx, dy, dz, density);
+        };
+    }
+}